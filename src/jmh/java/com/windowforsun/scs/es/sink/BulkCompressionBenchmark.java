@@ -0,0 +1,91 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time against body size of a bulk of log-style documents. {@code level} 0 is the uncompressed
+ * body, the {@code bytes} counters show the body size per operation for each level.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BulkCompressionBenchmark {
+    private static final String[] LEVELS = {"DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR"};
+    private static final String[] SERVICES = {"order-api", "payment-api", "gateway", "inventory-worker"};
+    private static final String[] MESSAGES = {
+            "Request completed",
+            "Slow query detected on table orders",
+            "Connection reset by peer, retrying",
+            "Cache miss for key product:%d",
+            "User %d logged in from 10.0.%d.%d"
+    };
+    @Param({"0", "1", "6", "9"})
+    private int level;
+    @Param({"1000"})
+    private int documents;
+    private BulkRequest bulkRequest;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class BodySize {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long timestamp = Instant.parse("2022-03-01T00:00:00Z").toEpochMilli();
+        this.bulkRequest = new BulkRequest();
+
+        for (int i = 0; i < this.documents; i++) {
+            timestamp += random.nextInt(50);
+            String message = String.format(MESSAGES[random.nextInt(MESSAGES.length)],
+                    random.nextInt(100_000), random.nextInt(256), random.nextInt(256));
+            String source = String.format("{\"@timestamp\":\"%s\",\"level\":\"%s\",\"service\":\"%s\","
+                            + "\"host\":\"node-%02d\",\"trace_id\":\"%016x\",\"duration_ms\":%d,\"message\":\"%s\"}",
+                    Instant.ofEpochMilli(timestamp), LEVELS[random.nextInt(LEVELS.length)],
+                    SERVICES[random.nextInt(SERVICES.length)], random.nextInt(20), random.nextLong(),
+                    random.nextInt(2_000), message);
+            this.bulkRequest.add(new IndexRequest("test").source(source, XContentType.JSON));
+        }
+    }
+
+    @Benchmark
+    public int serializeAndCompress(BodySize bodySize) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (this.level == 0) {
+            BulkBodySerializer.write(this.bulkRequest, body);
+        } else {
+            try (OutputStream gzip = new LowLevelBulkTransport.LevelGzipOutputStream(body, this.level)) {
+                BulkBodySerializer.write(this.bulkRequest, gzip);
+            }
+        }
+        bodySize.bytes += body.size();
+
+        return body.size();
+    }
+}
@@ -0,0 +1,80 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A released aggregator group turned into a {@link BulkRequest} the way the aggregator output processor
+ * does it, and the bulk written as the NDJSON body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BulkRequestBenchmark {
+    @Param({"100", "1000"})
+    private int documents;
+    private IndexRequestFactory indexRequestFactory;
+    private List<Message<?>> group;
+    private BulkRequest bulkRequest;
+    private ByteArrayOutputStream body;
+
+    @Setup
+    public void setUp() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setIndex("test");
+        this.indexRequestFactory = new IndexRequestFactory(properties,
+                new IndexNameResolver(null, properties.getDateTimeRollingZone()),
+                new EventTimeExtractor(properties, properties.getDateTimeRollingZone()), null);
+
+        this.group = new ArrayList<>();
+        for (int i = 0; i < this.documents; i++) {
+            this.group.add(MessageBuilder.withPayload(String.format(
+                    "{\"level\":\"INFO\",\"service\":\"order-api\",\"sequence\":%d,\"message\":\"Request completed\"}", i))
+                    .build());
+        }
+        this.bulkRequest = this.reduceIntoBulk();
+        this.body = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public BulkRequest reduceIntoBulk() {
+        return this.group
+                .stream()
+                .map(this.indexRequestFactory::createIndexRequest)
+                .filter(Objects::nonNull)
+                .reduce(new BulkRequest(),
+                        (bulk, indexRequest) -> {
+                            bulk.add(indexRequest);
+                            return bulk;
+                        },
+                        (bulk1, bulk2) -> {
+                            bulk1.add(bulk2.requests());
+
+                            return bulk1;
+                        });
+    }
+
+    @Benchmark
+    public int serializeBody() throws IOException {
+        this.body.reset();
+        BulkBodySerializer.write(this.bulkRequest, this.body);
+
+        return this.body.size();
+    }
+}
@@ -0,0 +1,77 @@
+package com.windowforsun.scs.es.sink;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id and routing of a raw JSON document with the fields near its start: converting the payload to a {@link Map}
+ * for {@code payload['userId']} and writing the map back as the source, against {@link JsonPointerExtractor}
+ * with the original bytes as the source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FieldExtractionBenchmark {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    @Param({"1024", "20480"})
+    private int documentBytes;
+    private byte[] document;
+    private Expression id;
+    private Expression routing;
+    private JsonPointerExtractor extractor;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"userId\":\"u-12345\",\"tenant\":{\"id\":\"acme\"},\"events\":[");
+        for (int i = 0; json.length() < this.documentBytes; i++) {
+            json.append(i > 0 ? "," : "")
+                    .append("{\"seq\":").append(i).append(",\"type\":\"click\",\"target\":\"button-").append(i % 17).append("\"}");
+        }
+        json.append("]}");
+        this.document = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        SpelExpressionParser parser = new SpelExpressionParser();
+        this.id = parser.parseExpression("payload['userId']");
+        this.routing = parser.parseExpression("payload['tenant']['id']");
+        this.extractor = new JsonPointerExtractor("userId", "/tenant/id");
+    }
+
+    @Benchmark
+    public IndexRequest mapConversion() throws IOException {
+        Map<String, Object> payload = OBJECT_MAPPER.readValue(this.document, Map.class);
+        Message<Map<String, Object>> message = MessageBuilder.withPayload(payload).build();
+
+        return new IndexRequest("test")
+                .id(this.id.getValue(message, String.class))
+                .routing(this.routing.getValue(message, String.class))
+                .source(payload, XContentType.JSON);
+    }
+
+    @Benchmark
+    public IndexRequest pointerExtraction() {
+        Object[] fields = this.extractor.extract(this.document);
+
+        return new IndexRequest("test")
+                .id((String) fields[0])
+                .routing((String) fields[1])
+                .source(this.document, XContentType.JSON);
+    }
+}
@@ -0,0 +1,34 @@
+package com.windowforsun.scs.es.sink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating a document id: the random UUIDs users tend to supply against {@link TimeBasedIdGenerator},
+ * run with several threads to show contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class IdGeneratorBenchmark {
+    private final TimeBasedIdGenerator idGenerator = new TimeBasedIdGenerator();
+
+    @Benchmark
+    public String randomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String timeBased() {
+        return this.idGenerator.next();
+    }
+}
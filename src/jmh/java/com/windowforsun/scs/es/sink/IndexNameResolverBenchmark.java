@@ -0,0 +1,51 @@
+package com.windowforsun.scs.es.sink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling index name per message: the formatter-per-call code {@link IndexRequestFactory} used to run
+ * against the cached {@link IndexNameResolver}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IndexNameResolverBenchmark {
+    @Param({"yyyy-MM-dd", "yyyy-MM-dd-HH"})
+    private String dateTimeRollingFormat;
+    private IndexNameResolver indexNameResolver;
+
+    @Setup
+    public void setUp() {
+        this.indexNameResolver = new IndexNameResolver(this.dateTimeRollingFormat, ZoneId.systemDefault());
+    }
+
+    @Benchmark
+    public String formatterPerMessage() {
+        String index = "test";
+        try {
+            String format = LocalDateTime.now().format(DateTimeFormatter.ofPattern(this.dateTimeRollingFormat));
+            index += "-" + format;
+        } catch (Exception ignore) {
+
+        }
+
+        return index;
+    }
+
+    @Benchmark
+    public String cachedResolver() {
+        return this.indexNameResolver.resolve("test");
+    }
+}
@@ -0,0 +1,84 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message to one index request per payload type, with and without a rolling index.
+ * An {@link XContentBuilder} can only be read once, so the xcontent case includes building it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IndexRequestFactoryBenchmark {
+    @Param({"", "yyyy-MM-dd"})
+    private String dateTimeRollingFormat;
+    private IndexRequestFactory indexRequestFactory;
+    private Message<String> stringMessage;
+    private Message<Map<String, Object>> mapMessage;
+
+    @Setup
+    public void setUp() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setIndex("test");
+        properties.setDateTimeRollingFormat(this.dateTimeRollingFormat.isEmpty() ? null : this.dateTimeRollingFormat);
+        ZoneId zone = properties.getDateTimeRollingZone();
+        this.indexRequestFactory = new IndexRequestFactory(properties,
+                new IndexNameResolver(properties.getDateTimeRollingFormat(), zone),
+                new EventTimeExtractor(properties, zone), null);
+
+        this.stringMessage = MessageBuilder.withPayload(
+                "{\"level\":\"INFO\",\"service\":\"order-api\",\"duration_ms\":12,\"message\":\"Request completed\"}").build();
+        Map<String, Object> map = new HashMap<>();
+        map.put("level", "INFO");
+        map.put("service", "order-api");
+        map.put("duration_ms", 12);
+        map.put("message", "Request completed");
+        this.mapMessage = MessageBuilder.withPayload(map).build();
+    }
+
+    @Benchmark
+    public String resolveIndex() {
+        return this.indexRequestFactory.resolveIndex(this.stringMessage);
+    }
+
+    @Benchmark
+    public DocWriteRequest<?> stringPayload() {
+        return this.indexRequestFactory.createIndexRequest(this.stringMessage);
+    }
+
+    @Benchmark
+    public DocWriteRequest<?> mapPayload() {
+        return this.indexRequestFactory.createIndexRequest(this.mapMessage);
+    }
+
+    @Benchmark
+    public DocWriteRequest<?> xContentPayload() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field("level", "INFO")
+                .field("service", "order-api")
+                .field("duration_ms", 12)
+                .field("message", "Request completed")
+                .endObject();
+
+        return this.indexRequestFactory.createIndexRequest(MessageBuilder.withPayload(builder).build());
+    }
+}
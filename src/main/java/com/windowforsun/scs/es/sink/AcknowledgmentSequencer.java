@@ -0,0 +1,303 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.binder.kafka.KafkaBindingRebalanceListener;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Acknowledges manually acknowledged messages ({@code consumer.ackMode=MANUAL}) only after they were written,
+ * and per partition in the order they arrived, so a committed offset never passes a document that is still
+ * in flight. Messages are tracked from the moment they arrive, with {@link #track(Message)} before the aggregator,
+ * as groups of different correlation keys are released in any order. Later requests keep flowing while earlier
+ * ones are pending.
+ * <p>
+ * A request that fails, asynchronously or thrown to the caller, holds back its own and every later
+ * acknowledgment and restarts the binding, as a thrown failure is not redelivered by the binder when it happens
+ * off the consumer thread, e.g. for groups released by the aggregator's timeout. The consumer goes back to the
+ * last committed offset once the partitions are assigned again, and the sequencer starts over; results of
+ * messages that arrived before that are ignored.
+ */
+@Slf4j
+public class AcknowledgmentSequencer implements KafkaBindingRebalanceListener, DisposableBean {
+    public static final String ACKNOWLEDGMENTS = "elasticsearchSinkAcknowledgments";
+    private final Map<Object, Deque<Ticket>> partitions = new HashMap<>();
+    private final Map<Acknowledgment, Ticket> tickets = new IdentityHashMap<>();
+    private final java.util.function.Consumer<String> redeliver;
+    private final ExecutorService executor;
+    private volatile String binding;
+    private volatile boolean blocked;
+    private long generation;
+
+    public AcknowledgmentSequencer(BindingsLifecycleController bindingsLifecycleController) {
+        this(binding -> restart(bindingsLifecycleController, binding));
+    }
+
+    AcknowledgmentSequencer(java.util.function.Consumer<String> redeliver) {
+        this.redeliver = redeliver;
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("es-sink-acknowledgments-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Acknowledgment> acknowledgments(Message<?> message) {
+        Object acknowledgments = message.getHeaders().get(ACKNOWLEDGMENTS);
+        if (acknowledgments instanceof List) {
+            return (List<Acknowledgment>) acknowledgments;
+        }
+
+        Object acknowledgment = message.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT);
+        return acknowledgment instanceof Acknowledgment
+                ? Collections.singletonList((Acknowledgment) acknowledgment)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Acknowledgments of all messages in order, a batch acknowledgment shared by several records only once.
+     */
+    public static List<Acknowledgment> acknowledgments(Collection<? extends Message<?>> messages) {
+        Map<Acknowledgment, Boolean> acknowledgments = new IdentityHashMap<>();
+        List<Acknowledgment> ordered = new ArrayList<>();
+
+        for (Message<?> message : messages) {
+            for (Acknowledgment acknowledgment : acknowledgments(message)) {
+                if (acknowledgments.put(acknowledgment, Boolean.TRUE) == null) {
+                    ordered.add(acknowledgment);
+                }
+            }
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Queues the acknowledgment of an arriving message behind the earlier ones of its partition.
+     */
+    public Message<?> track(Message<?> message) {
+        List<Acknowledgment> acknowledgments = acknowledgments(message);
+        if (!acknowledgments.isEmpty() && !this.blocked) {
+            this.register(partition(message), acknowledgments);
+        }
+
+        return message;
+    }
+
+    /**
+     * Writes a message and acknowledges it in its turn. A message carrying the {@link #ACKNOWLEDGMENTS} of a
+     * released group only completes what was tracked on arrival, any other message is tracked right now.
+     */
+    public void dispatch(Message<?> message, Supplier<CompletableFuture<Void>> write) {
+        List<Acknowledgment> acknowledgments = acknowledgments(message);
+        if (acknowledgments.isEmpty() || this.blocked) {
+            write.get();
+            return;
+        }
+
+        List<Ticket> tickets = message.getHeaders().containsKey(ACKNOWLEDGMENTS)
+                ? this.tickets(acknowledgments)
+                : this.register(partition(message), acknowledgments);
+        CompletableFuture<Void> result;
+        try {
+            result = write.get();
+        } catch (RuntimeException e) {
+            this.fail(tickets);
+            throw e;
+        }
+
+        result.whenComplete((ignore, e) -> {
+            if (e == null) {
+                this.complete(tickets);
+            } else {
+                this.fail(tickets);
+            }
+        });
+    }
+
+    /**
+     * The tracked messages of {@code acknowledgments} were written.
+     */
+    public void complete(List<Acknowledgment> acknowledgments) {
+        this.complete(this.tickets(acknowledgments));
+    }
+
+    /**
+     * The tracked messages of {@code acknowledgments} could not be written.
+     */
+    public void fail(List<Acknowledgment> acknowledgments) {
+        this.fail(this.tickets(acknowledgments));
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(String bindingName, Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        this.binding = bindingName;
+        this.reset();
+    }
+
+    @Override
+    public void onPartitionsAssigned(String bindingName, Consumer<?, ?> consumer, Collection<TopicPartition> partitions, boolean initial) {
+        this.binding = bindingName;
+        this.reset();
+    }
+
+    public boolean isBlocked() {
+        return this.blocked;
+    }
+
+    public synchronized int getPendingAcknowledgments() {
+        return this.tickets.size();
+    }
+
+    private synchronized List<Ticket> register(Object partition, List<Acknowledgment> acknowledgments) {
+        List<Ticket> registered = new ArrayList<>(acknowledgments.size());
+        if (this.blocked) {
+            return registered;
+        }
+
+        Deque<Ticket> queue = this.partitions.computeIfAbsent(partition, key -> new ArrayDeque<>());
+        for (Acknowledgment acknowledgment : acknowledgments) {
+            Ticket ticket = this.tickets.get(acknowledgment);
+            if (ticket == null) {
+                // a batch acknowledgment shared by several records is queued once
+                ticket = new Ticket(acknowledgment, queue, this.generation);
+                queue.addLast(ticket);
+                this.tickets.put(acknowledgment, ticket);
+            }
+            registered.add(ticket);
+        }
+
+        return registered;
+    }
+
+    private synchronized List<Ticket> tickets(List<Acknowledgment> acknowledgments) {
+        List<Ticket> tickets = new ArrayList<>(acknowledgments.size());
+        for (Acknowledgment acknowledgment : acknowledgments) {
+            // not tracked any more when it arrived before the last rebalance
+            Ticket ticket = this.tickets.get(acknowledgment);
+            if (ticket != null) {
+                tickets.add(ticket);
+            }
+        }
+
+        return tickets;
+    }
+
+    private synchronized void complete(List<Ticket> tickets) {
+        for (Ticket ticket : tickets) {
+            if (ticket.generation == this.generation) {
+                ticket.done = true;
+                this.drain(ticket.partition);
+            }
+        }
+    }
+
+    private synchronized void fail(List<Ticket> tickets) {
+        if (this.blocked || tickets.stream().noneMatch(ticket -> ticket.generation == this.generation)) {
+            return;
+        }
+
+        // nothing from here on may be committed, so there is no point in tracking it any longer
+        log.error("Write failed, holding back all further acknowledgments and restarting binding {} to redeliver them", this.binding);
+        this.blocked = true;
+        this.partitions.clear();
+        this.tickets.clear();
+        String binding = this.binding;
+        try {
+            // stopping the binding waits for the consumer thread, which may be the one failing here
+            this.executor.execute(() -> this.redeliver.accept(binding));
+        } catch (RejectedExecutionException e) {
+            log.debug("Acknowledgment sequencer is shut down");
+        }
+    }
+
+    /**
+     * Starts over after a rebalance. With the default eager assignment every partition is revoked, so the
+     * consumer resumes from the committed offsets and whatever was pending is delivered again.
+     */
+    synchronized void reset() {
+        if (this.blocked || !this.tickets.isEmpty()) {
+            log.info("Partitions reassigned, dropping {} pending acknowledgments", this.tickets.size());
+        }
+        this.generation++;
+        this.blocked = false;
+        this.partitions.clear();
+        this.tickets.clear();
+    }
+
+    private void drain(Deque<Ticket> partition) {
+        // acknowledging only queues the offsets for the consumer thread, cheap enough to do under the lock
+        while (!partition.isEmpty() && partition.peekFirst().done) {
+            Ticket ticket = partition.pollFirst();
+            this.tickets.remove(ticket.acknowledgment);
+            ticket.acknowledgment.acknowledge();
+        }
+    }
+
+    /**
+     * Topic and partition of a record. A batch spans several partitions and is acknowledged as a whole,
+     * so batches share a single sequence.
+     */
+    private static Object partition(Message<?> message) {
+        Object topic = message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC);
+        Object partition = message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION_ID);
+        if (topic instanceof List || partition instanceof List) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.asList(topic, partition);
+    }
+
+    private static void restart(BindingsLifecycleController bindingsLifecycleController, String binding) {
+        if (bindingsLifecycleController == null || binding == null) {
+            log.error("Can not restart binding {}, offsets stay uncommitted until the partitions are assigned again", binding);
+            return;
+        }
+        try {
+            bindingsLifecycleController.changeState(binding, BindingsLifecycleController.State.STOPPED);
+            bindingsLifecycleController.changeState(binding, BindingsLifecycleController.State.STARTED);
+        } catch (RuntimeException e) {
+            log.error("Could not restart binding {}: {}", binding, e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    private static class Ticket {
+        private final Acknowledgment acknowledgment;
+        private final Deque<Ticket> partition;
+        private final long generation;
+        private boolean done;
+
+        private Ticket(Acknowledgment acknowledgment, Deque<Ticket> partition, long generation) {
+            this.acknowledgment = acknowledgment;
+            this.partition = partition;
+            this.generation = generation;
+        }
+    }
+}
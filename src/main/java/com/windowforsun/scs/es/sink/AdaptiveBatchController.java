@@ -0,0 +1,112 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Effective batch size and group timeout of the aggregator. Fixed to {@code batchSize} and {@code groupTimeout}
+ * unless {@code adaptive.enabled} is set, then adjusted after every bulk response AIMD-style: while bulks are
+ * answered within {@code targetLatencyMillis} without rejections the batch grows and the timeout shrinks by a
+ * step, on a 429/503, a failed request or a slower bulk the batch is multiplied by {@code backoffFactor}
+ * and the timeout divided by it, so fewer, smaller requests reach a struggling cluster.
+ */
+@Slf4j
+public class AdaptiveBatchController {
+    private final boolean enabled;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int batchSizeStep;
+    private final long minGroupTimeout;
+    private final long maxGroupTimeout;
+    private final long groupTimeoutStep;
+    private final long targetLatencyNanos;
+    private final double backoffFactor;
+    private volatile int batchSize;
+    private volatile long groupTimeout;
+
+    public AdaptiveBatchController(ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        ElasticsearchSinkProperties.Adaptive adaptive = elasticsearchSinkProperties.getAdaptive();
+        this.enabled = adaptive.isEnabled();
+        this.minBatchSize = Math.max(1, adaptive.getMinBatchSize());
+        this.maxBatchSize = Math.max(this.minBatchSize, adaptive.getMaxBatchSize());
+        this.batchSizeStep = adaptive.getBatchSizeStep();
+        this.minGroupTimeout = Math.max(0L, adaptive.getMinGroupTimeout());
+        this.maxGroupTimeout = Math.max(this.minGroupTimeout, adaptive.getMaxGroupTimeout());
+        this.groupTimeoutStep = adaptive.getGroupTimeoutStep();
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(adaptive.getTargetLatencyMillis());
+        this.backoffFactor = adaptive.getBackoffFactor();
+        if (!(this.backoffFactor > 0.0 && this.backoffFactor < 1.0)) {
+            // 1 or more would grow the batch on rejections, 0 would divide the timeout by zero
+            throw new IllegalArgumentException("adaptive.backoff-factor must be between 0 and 1 exclusive: " + this.backoffFactor);
+        }
+
+        if (this.enabled) {
+            this.batchSize = clamp(elasticsearchSinkProperties.getBatchSize(), this.minBatchSize, this.maxBatchSize);
+            this.groupTimeout = clamp(elasticsearchSinkProperties.getGroupTimeout(), this.minGroupTimeout, this.maxGroupTimeout);
+        } else {
+            this.batchSize = elasticsearchSinkProperties.getBatchSize();
+            this.groupTimeout = elasticsearchSinkProperties.getGroupTimeout();
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public long getGroupTimeout() {
+        return this.groupTimeout;
+    }
+
+    /**
+     * A bulk was answered after {@code latencyNanos} with {@code rejectedItems} items rejected by 429/503.
+     */
+    public void onBulk(long latencyNanos, int rejectedItems) {
+        if (!this.enabled) {
+            return;
+        }
+
+        if (rejectedItems > 0 || latencyNanos > this.targetLatencyNanos) {
+            this.backoff();
+        } else {
+            this.grow();
+        }
+    }
+
+    /**
+     * A bulk got no response at all.
+     */
+    public void onFailure() {
+        if (this.enabled) {
+            this.backoff();
+        }
+    }
+
+    private synchronized void grow() {
+        this.batchSize = clamp((long) this.batchSize + this.batchSizeStep, this.minBatchSize, this.maxBatchSize);
+        this.groupTimeout = clamp(this.groupTimeout - this.groupTimeoutStep, this.minGroupTimeout, this.maxGroupTimeout);
+    }
+
+    private synchronized void backoff() {
+        int batchSize = clamp((long) (this.batchSize * this.backoffFactor), this.minBatchSize, this.maxBatchSize);
+        long groupTimeout = clamp((long) (this.groupTimeout / this.backoffFactor), this.minGroupTimeout, this.maxGroupTimeout);
+        if (batchSize != this.batchSize) {
+            log.debug("Backing off, batch size {} -> {}, group timeout {} -> {}",
+                    this.batchSize, batchSize, this.groupTimeout, groupTimeout);
+        }
+        this.batchSize = batchSize;
+        this.groupTimeout = groupTimeout;
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
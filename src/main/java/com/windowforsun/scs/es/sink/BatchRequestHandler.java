@@ -0,0 +1,125 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles the {@code List} payload of a binder batch consumer ({@code consumer.batch-mode=true}).
+ * Every polled batch becomes one bulk request per correlation key, split further only when
+ * {@code batchSize} or {@code batchMaxBytes} is exceeded, without going through the aggregator.
+ */
+public class BatchRequestHandler implements MessageHandler {
+    private final IndexRequestFactory indexRequestFactory;
+    private final ElasticsearchWriter elasticsearchWriter;
+    private final AcknowledgmentSequencer acknowledgmentSequencer;
+    private final int batchSize;
+    private final long batchMaxBytes;
+
+    public BatchRequestHandler(IndexRequestFactory indexRequestFactory,
+                               ElasticsearchWriter elasticsearchWriter,
+                               AcknowledgmentSequencer acknowledgmentSequencer,
+                               ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        this.indexRequestFactory = indexRequestFactory;
+        this.elasticsearchWriter = elasticsearchWriter;
+        this.acknowledgmentSequencer = acknowledgmentSequencer;
+        int batchSize = elasticsearchSinkProperties.getBatchSize();
+        this.batchSize = batchSize > 1 ? batchSize : Integer.MAX_VALUE;
+        this.batchMaxBytes = elasticsearchSinkProperties.getBatchMaxBytes() > 0
+                ? elasticsearchSinkProperties.getBatchMaxBytes() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void handleMessage(Message<?> message) {
+        // the batch is acknowledged once all of its bulks are written
+        this.acknowledgmentSequencer.dispatch(message, () -> this.write(message));
+    }
+
+    private CompletableFuture<Void> write(Message<?> message) {
+        Map<Object, BulkRequest> bulks = new LinkedHashMap<>();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+
+        for (Message<?> record : split(message)) {
+            DocWriteRequest<?> indexRequest = this.indexRequestFactory.createIndexRequest(record);
+            if (indexRequest == null) {
+                continue;
+            }
+
+            Object key = this.indexRequestFactory.correlationKey(indexRequest);
+            BulkRequest bulk = bulks.computeIfAbsent(key, k -> new BulkRequest());
+            bulk.add(indexRequest);
+
+            if (bulk.numberOfActions() >= this.batchSize || bulk.estimatedSizeInBytes() >= this.batchMaxBytes) {
+                results.add(this.elasticsearchWriter.index(bulk));
+                bulks.remove(key);
+            }
+        }
+
+        for (BulkRequest bulk : bulks.values()) {
+            results.add(this.elasticsearchWriter.index(bulk));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Turns a batch message back into one message per record. List valued headers that line up with
+     * the payload (offsets, timestamps, keys, ...) and the converted record headers are handed to
+     * their own record, every other header is shared.
+     */
+    static List<Message<?>> split(Message<?> batch) {
+        Object payload = batch.getPayload();
+        if (!(payload instanceof List)) {
+            return Collections.singletonList(batch);
+        }
+
+        List<?> payloads = (List<?>) payload;
+        int size = payloads.size();
+        MessageHeaders headers = batch.getHeaders();
+        Map<String, Object> sharedHeaders = new LinkedHashMap<>();
+        Map<String, List<?>> recordHeaders = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Object> header : headers.entrySet()) {
+            if (MessageHeaders.ID.equals(header.getKey()) || MessageHeaders.TIMESTAMP.equals(header.getKey())) {
+                continue;
+            }
+            if (header.getValue() instanceof List && ((List<?>) header.getValue()).size() == size) {
+                recordHeaders.put(header.getKey(), (List<?>) header.getValue());
+            } else {
+                sharedHeaders.put(header.getKey(), header.getValue());
+            }
+        }
+        List<?> convertedHeaders = recordHeaders.remove(KafkaHeaders.BATCH_CONVERTED_HEADERS);
+
+        List<Message<?>> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object element = payloads.get(i);
+            if (element instanceof Message) {
+                messages.add((Message<?>) element);
+                continue;
+            }
+
+            MessageBuilder<Object> builder = MessageBuilder.withPayload(element).copyHeaders(sharedHeaders);
+            for (Map.Entry<String, List<?>> header : recordHeaders.entrySet()) {
+                builder.setHeader(header.getKey(), header.getValue().get(i));
+            }
+            if (convertedHeaders != null && convertedHeaders.get(i) instanceof Map) {
+                builder.copyHeaders((Map<String, ?>) convertedHeaders.get(i));
+            }
+            messages.add(builder.build());
+        }
+
+        return messages;
+    }
+}
@@ -0,0 +1,95 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a {@link BulkRequest} as the NDJSON body of {@code POST /_bulk}, for sending bulks through the
+ * low-level client. Index and create requests carry their source, updates the {@code doc} or {@code script}
+ * body and deletes only the action line.
+ */
+final class BulkBodySerializer {
+    private static final int NEW_LINE = '\n';
+
+    private BulkBodySerializer() {
+    }
+
+    static Request request(BulkRequest bulkRequest) {
+        Request request = new Request("POST", "/_bulk");
+        if (bulkRequest.timeout() != null) {
+            request.addParameter("timeout", bulkRequest.timeout().getStringRep());
+        }
+        if (bulkRequest.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE) {
+            request.addParameter("refresh", bulkRequest.getRefreshPolicy().getValue());
+        }
+
+        return request;
+    }
+
+    static void write(BulkRequest bulkRequest, OutputStream out) throws IOException {
+        for (DocWriteRequest<?> request : bulkRequest.requests()) {
+            XContentBuilder action = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .startObject(request.opType().getLowercase())
+                    .field("_index", request.index());
+            if (request.id() != null) {
+                action.field("_id", request.id());
+            }
+            if (request.routing() != null) {
+                action.field("routing", request.routing());
+            }
+
+            BytesReference body;
+            if (request instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) request;
+                if (indexRequest.getPipeline() != null) {
+                    action.field("pipeline", indexRequest.getPipeline());
+                }
+                body = source(indexRequest);
+            } else if (request instanceof UpdateRequest) {
+                UpdateRequest updateRequest = (UpdateRequest) request;
+                if (updateRequest.retryOnConflict() > 0) {
+                    action.field("retry_on_conflict", updateRequest.retryOnConflict());
+                }
+                body = XContentHelper.toXContent(updateRequest, XContentType.JSON, false);
+            } else if (request instanceof DeleteRequest) {
+                // a delete is the action line alone
+                body = null;
+            } else {
+                throw new IllegalArgumentException("Unsupported bulk operation: " + request.opType());
+            }
+            action.endObject().endObject();
+
+            BytesReference.bytes(action).writeTo(out);
+            out.write(NEW_LINE);
+            if (body != null) {
+                body.writeTo(out);
+                out.write(NEW_LINE);
+            }
+        }
+    }
+
+    private static BytesReference source(IndexRequest indexRequest) throws IOException {
+        if (indexRequest.getContentType() == XContentType.JSON) {
+            return indexRequest.source();
+        }
+        String json = XContentHelper.convertToJson(indexRequest.source(), false, indexRequest.getContentType());
+
+        return new BytesArray(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
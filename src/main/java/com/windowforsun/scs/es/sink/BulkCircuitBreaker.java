@@ -0,0 +1,298 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Pauses the input {@code binding} while Elasticsearch is saturated, so consumption stops instead of every
+ * message failing into the binder's retries. The outcomes of the last {@code windowSize} requests are kept;
+ * once at least {@code minimumCalls} are known and the share of failed ones (no response, or the request or
+ * its items rejected with 429/503) reaches {@code failureRateThreshold} percent, or the share slower than
+ * {@code slowCallDurationMillis} reaches {@code slowCallRateThreshold} percent, the breaker opens.
+ * <p>
+ * After {@code openDurationMillis} it probes the cluster health, as nothing is written while the binding is paused.
+ * A probe answered in time with a status other than red turns it half-open and resumes the binding, otherwise
+ * it stays open for another period. The health stays green while the write thread pool rejects, so only the
+ * first request answered after that decides: answered in time and without rejections it closes the breaker,
+ * otherwise the breaker opens and pauses the binding again. Requests answered while open are not counted.
+ */
+@Slf4j
+public class BulkCircuitBreaker implements DisposableBean {
+    private final String binding;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openDurationMillis;
+    private final BooleanSupplier probe;
+    private final Consumer<BindingsLifecycleController.State> bindingState;
+    private final ElasticsearchSinkMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int next;
+    private int calls;
+    private int failed;
+    private int slow;
+    private volatile State state = State.CLOSED;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public BulkCircuitBreaker(RestClient restClient,
+                              BindingsLifecycleController bindingsLifecycleController,
+                              ElasticsearchSinkProperties elasticsearchSinkProperties,
+                              ElasticsearchSinkMetrics metrics) {
+        this(elasticsearchSinkProperties,
+                () -> probe(restClient, TimeUnit.MILLISECONDS.toNanos(elasticsearchSinkProperties.getCircuitBreaker().getSlowCallDurationMillis())),
+                bindingState(bindingsLifecycleController, elasticsearchSinkProperties.getCircuitBreaker().getBinding()),
+                metrics);
+    }
+
+    BulkCircuitBreaker(ElasticsearchSinkProperties elasticsearchSinkProperties,
+                       BooleanSupplier probe,
+                       Consumer<BindingsLifecycleController.State> bindingState,
+                       ElasticsearchSinkMetrics metrics) {
+        ElasticsearchSinkProperties.CircuitBreaker circuitBreaker = elasticsearchSinkProperties.getCircuitBreaker();
+        this.binding = circuitBreaker.getBinding();
+        this.windowSize = Math.max(1, circuitBreaker.getWindowSize());
+        this.minimumCalls = Math.max(1, Math.min(this.windowSize, circuitBreaker.getMinimumCalls()));
+        this.failureRateThreshold = circuitBreaker.getFailureRateThreshold();
+        this.slowCallRateThreshold = circuitBreaker.getSlowCallRateThreshold();
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(circuitBreaker.getSlowCallDurationMillis());
+        this.openDurationMillis = circuitBreaker.getOpenDurationMillis();
+        this.probe = probe;
+        this.bindingState = bindingState;
+        this.metrics = metrics;
+        this.failedCalls = new boolean[this.windowSize];
+        this.slowCalls = new boolean[this.windowSize];
+        metrics.registerCircuitBreaker(this);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("es-sink-circuit-breaker-");
+        threadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public String getBinding() {
+        return this.binding;
+    }
+
+    /**
+     * Failed calls in the window, in percent.
+     */
+    public synchronized double getFailureRate() {
+        return this.calls == 0 ? 0.0 : this.failed * 100.0 / this.calls;
+    }
+
+    /**
+     * Slow calls in the window, in percent.
+     */
+    public synchronized double getSlowCallRate() {
+        return this.calls == 0 ? 0.0 : this.slow * 100.0 / this.calls;
+    }
+
+    /**
+     * A request was answered after {@code latencyNanos}, {@code failed} when items were rejected with 429/503.
+     */
+    public void onCall(long latencyNanos, boolean failed) {
+        if (this.state == State.CLOSED) {
+            this.record(failed, latencyNanos > this.slowCallNanos);
+        } else if (this.state == State.HALF_OPEN) {
+            this.trial(!failed && latencyNanos <= this.slowCallNanos);
+        }
+    }
+
+    /**
+     * A request failed with {@code e}. Only no response at all (I/O errors and timeouts) or the whole request
+     * rejected with 429/503 count as failed, client errors such as 400 or 413 say nothing about the cluster.
+     */
+    public void onFailure(Exception e) {
+        if (!isFailure(e)) {
+            return;
+        }
+        if (this.state == State.CLOSED) {
+            this.record(true, false);
+        } else if (this.state == State.HALF_OPEN) {
+            this.trial(false);
+        }
+    }
+
+    static boolean isFailure(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (e instanceof ElasticsearchStatusException) {
+            RestStatus status = ((ElasticsearchStatusException) e).status();
+            return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+        }
+
+        return false;
+    }
+
+    private synchronized void record(boolean failed, boolean slow) {
+        if (this.state != State.CLOSED) {
+            return;
+        }
+
+        if (this.calls == this.windowSize) {
+            // the oldest outcome drops out of the window
+            this.failed -= this.failedCalls[this.next] ? 1 : 0;
+            this.slow -= this.slowCalls[this.next] ? 1 : 0;
+        } else {
+            this.calls++;
+        }
+        this.failedCalls[this.next] = failed;
+        this.slowCalls[this.next] = slow;
+        this.failed += failed ? 1 : 0;
+        this.slow += slow ? 1 : 0;
+        this.next = (this.next + 1) % this.windowSize;
+
+        if (this.calls < this.minimumCalls) {
+            return;
+        }
+        double failureRate = this.getFailureRate();
+        double slowCallRate = this.getSlowCallRate();
+        if ((this.failureRateThreshold > 0 && failureRate >= this.failureRateThreshold)
+                || (this.slowCallRateThreshold > 0 && slowCallRate >= this.slowCallRateThreshold)) {
+            log.warn("Opening circuit breaker, {}% of the last {} requests failed and {}% were slow, pausing binding {}",
+                    (int) failureRate, this.calls, (int) slowCallRate, this.binding);
+            this.open();
+        }
+    }
+
+    /**
+     * The first request answered while half-open closes the breaker or opens it again.
+     */
+    private synchronized void trial(boolean succeeded) {
+        if (this.state != State.HALF_OPEN) {
+            return;
+        }
+
+        if (succeeded) {
+            this.reset();
+            this.transition(State.CLOSED);
+            log.info("Closing circuit breaker, trial request on binding {} succeeded", this.binding);
+        } else {
+            log.warn("Circuit breaker trial request failed, pausing binding {} again", this.binding);
+            this.open();
+        }
+    }
+
+    private void open() {
+        this.transition(State.OPEN);
+        this.execute(() -> this.bindingState.accept(BindingsLifecycleController.State.PAUSED));
+        this.scheduleHalfOpen();
+    }
+
+    private void halfOpen() {
+        if (this.probe.getAsBoolean()) {
+            synchronized (this) {
+                this.transition(State.HALF_OPEN);
+            }
+            log.info("Circuit breaker probe succeeded, resuming binding {} for a trial request", this.binding);
+            this.bindingState.accept(BindingsLifecycleController.State.RESUMED);
+        } else {
+            log.info("Circuit breaker probe failed, binding {} stays paused for {} ms", this.binding, this.openDurationMillis);
+            this.scheduleHalfOpen();
+        }
+    }
+
+    private void reset() {
+        this.next = 0;
+        this.calls = 0;
+        this.failed = 0;
+        this.slow = 0;
+    }
+
+    private void transition(State state) {
+        this.state = state;
+        this.metrics.recordCircuitBreakerTransition(state);
+    }
+
+    private void scheduleHalfOpen() {
+        try {
+            this.scheduler.schedule(this::halfOpen, this.openDurationMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Circuit breaker is shut down");
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            this.scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Circuit breaker is shut down");
+        }
+    }
+
+    private static Consumer<BindingsLifecycleController.State> bindingState(BindingsLifecycleController bindingsLifecycleController,
+                                                                            String binding) {
+        return state -> {
+            if (bindingsLifecycleController == null) {
+                log.warn("No bindings lifecycle controller, binding {} can not be {}", binding, state);
+                return;
+            }
+            try {
+                bindingsLifecycleController.changeState(binding, state);
+            } catch (RuntimeException e) {
+                log.warn("Could not change binding {} to {}: {}", binding, state, e.getMessage());
+            }
+        };
+    }
+
+    /**
+     * The cluster answers its health within the slow call duration and is not red.
+     */
+    private static boolean probe(RestClient restClient, long slowCallNanos) {
+        Request request = new Request("GET", "/_cluster/health");
+        request.addParameter("filter_path", "status");
+        long start = System.nanoTime();
+
+        try {
+            Response response = restClient.performRequest(request);
+            Map<String, Object> health;
+            try (InputStream content = response.getEntity().getContent()) {
+                health = XContentHelper.convertToMap(XContentType.JSON.xContent(), content, false);
+            }
+            long latencyNanos = System.nanoTime() - start;
+            log.debug("Circuit breaker probe: status {} after {} ms", health.get("status"), TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+
+            return !"red".equals(health.get("status")) && latencyNanos <= slowCallNanos;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Circuit breaker probe failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+}
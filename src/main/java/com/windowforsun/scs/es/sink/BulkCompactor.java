@@ -0,0 +1,56 @@
+package com.windowforsun.scs.es.sink;
+
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.DocWriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drops the requests of one bulk that are overwritten by a later index or delete of the same document
+ * (index, routing and {@code _id}), so a hot key written several times within a group is indexed once.
+ * Creates and updates never replace what came before them. Survivors keep their relative order, requests
+ * without an id are never collapsed.
+ */
+final class BulkCompactor {
+    private static final char SEPARATOR = '\u0000';
+
+    private BulkCompactor() {
+    }
+
+    static <T extends DocWriteRequest<?>> List<T> lastWritePerDocument(List<T> requests) {
+        Map<String, Integer> lastFullWrites = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            T request = requests.get(i);
+            String key = key(request);
+            if (key != null && replacesDocument(request)) {
+                lastFullWrites.put(key, i);
+            }
+        }
+
+        List<T> compacted = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String key = key(requests.get(i));
+            Integer lastFullWrite = key == null ? null : lastFullWrites.get(key);
+            if (lastFullWrite == null || lastFullWrite <= i) {
+                compacted.add(requests.get(i));
+            }
+        }
+
+        return compacted;
+    }
+
+    private static boolean replacesDocument(DocWriteRequest<?> request) {
+        return request.opType() == DocWriteRequest.OpType.INDEX || request.opType() == DocWriteRequest.OpType.DELETE;
+    }
+
+    private static String key(DocWriteRequest<?> request) {
+        if (StringUtils.isEmpty(request.id())) {
+            return null;
+        }
+
+        return request.index() + SEPARATOR + StringUtils.defaultString(request.routing()) + SEPARATOR + request.id();
+    }
+}
@@ -0,0 +1,42 @@
+package com.windowforsun.scs.es.sink;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/bulkload}: shows whether a bulk load is going on, {@code POST {"active": true|false}}
+ * starts or ends one. Has to be exposed through {@code management.endpoints.web.exposure.include}.
+ */
+@Endpoint(id = "bulkload")
+public class BulkLoadEndpoint {
+    private final BulkLoadManager bulkLoadManager;
+
+    public BulkLoadEndpoint(BulkLoadManager bulkLoadManager) {
+        this.bulkLoadManager = bulkLoadManager;
+    }
+
+    @ReadOperation
+    public Map<String, Object> bulkLoad() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("active", this.bulkLoadManager.isActive());
+        state.put("documentsPerSecond", this.bulkLoadManager.getDocumentsPerSecond());
+        state.put("indices", this.bulkLoadManager.getIndices());
+
+        return state;
+    }
+
+    @WriteOperation
+    public Map<String, Object> bulkLoad(boolean active) {
+        if (active) {
+            this.bulkLoadManager.start();
+        } else {
+            this.bulkLoadManager.stop();
+        }
+
+        return this.bulkLoad();
+    }
+}
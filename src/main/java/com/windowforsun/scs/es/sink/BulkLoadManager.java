@@ -0,0 +1,258 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies ingestion-optimized settings ({@code refresh_interval} and {@code number_of_replicas}) to the indices
+ * the sink writes to while a bulk load is going on, and restores the previous values afterwards.
+ * <p>
+ * A bulk load starts when the documents per second reach {@code thresholdDocumentsPerSecond} or on
+ * {@link #start()}, and ends after {@code quietPeriodMillis} without documents, on {@link #stop()} or on
+ * shutdown. Indices first written during a bulk load get the settings on the next check.
+ * An index already carrying the bulk-load settings, e.g. set by another instance of the sink, is left
+ * to whoever saved its previous settings. Settings that could not be restored are tried again on every check,
+ * on shutdown the restore gives up after {@code shutdownTimeoutMillis}.
+ */
+@Slf4j
+public class BulkLoadManager implements DisposableBean {
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private final RestHighLevelClient restHighLevelClient;
+    private final long thresholdDocumentsPerSecond;
+    private final long quietPeriodNanos;
+    private final Settings bulkLoadSettings;
+    private final long shutdownTimeoutMillis;
+    private final Set<String> indices = ConcurrentHashMap.newKeySet();
+    private final LongAdder documents = new LongAdder();
+    private final Set<String> applied = new HashSet<>();
+    private final Map<String, Settings> savedSettings = new LinkedHashMap<>();
+    private final ScheduledExecutorService checkScheduler;
+    private volatile boolean active;
+    private volatile double documentsPerSecond;
+    private long lastDocuments;
+    private long lastCheckNanos = System.nanoTime();
+    private long lastActivityNanos = System.nanoTime();
+
+    public BulkLoadManager(RestHighLevelClient restHighLevelClient,
+                           ElasticsearchSinkProperties elasticsearchSinkProperties,
+                           ElasticsearchSinkMetrics metrics) {
+        ElasticsearchSinkProperties.BulkLoad bulkLoad = elasticsearchSinkProperties.getBulkLoad();
+        this.restHighLevelClient = restHighLevelClient;
+        this.thresholdDocumentsPerSecond = bulkLoad.getThresholdDocumentsPerSecond();
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(bulkLoad.getQuietPeriodMillis());
+        this.bulkLoadSettings = Settings.builder()
+                .put(REFRESH_INTERVAL, bulkLoad.getRefreshInterval())
+                .put(NUMBER_OF_REPLICAS, bulkLoad.getNumberOfReplicas())
+                .build();
+        this.shutdownTimeoutMillis = bulkLoad.getShutdownTimeoutMillis();
+        metrics.registerBulkLoadManager(this);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("es-sink-bulk-load-");
+        threadFactory.setDaemon(true);
+        this.checkScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.checkScheduler.scheduleWithFixedDelay(this::check,
+                bulkLoad.getCheckIntervalMillis(), bulkLoad.getCheckIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A document is about to be written to {@code index}.
+     */
+    public void record(String index) {
+        this.indices.add(index);
+        this.documents.increment();
+    }
+
+    public boolean isActive() {
+        return this.active;
+    }
+
+    public double getDocumentsPerSecond() {
+        return this.documentsPerSecond;
+    }
+
+    /**
+     * Indices whose previous settings are saved to be restored.
+     */
+    public synchronized Set<String> getIndices() {
+        return new TreeSet<>(this.savedSettings.keySet());
+    }
+
+    public synchronized void start() {
+        if (!this.active) {
+            log.info("Starting bulk load, applying {} to {}", this.bulkLoadSettings, this.indices);
+            this.active = true;
+        }
+        this.lastActivityNanos = System.nanoTime();
+        this.apply();
+    }
+
+    public synchronized void stop() {
+        if (this.active) {
+            log.info("Ending bulk load, restoring settings of {}", this.savedSettings.keySet());
+            this.active = false;
+        }
+        this.restore(RequestOptions.DEFAULT, Long.MAX_VALUE);
+        this.applied.clear();
+        // indices written after the bulk load are recorded again when their next document arrives
+        this.indices.clear();
+    }
+
+    private synchronized void check() {
+        try {
+            long now = System.nanoTime();
+            long documents = this.documents.sum();
+            long written = documents - this.lastDocuments;
+            this.documentsPerSecond = written * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1L, now - this.lastCheckNanos);
+            this.lastDocuments = documents;
+            this.lastCheckNanos = now;
+            if (written > 0) {
+                this.lastActivityNanos = now;
+            }
+
+            if (!this.active && this.thresholdDocumentsPerSecond > 0 && this.documentsPerSecond >= this.thresholdDocumentsPerSecond) {
+                log.info("{} documents per second, starting bulk load", (long) this.documentsPerSecond);
+                this.start();
+            } else if (this.active && now - this.lastActivityNanos >= this.quietPeriodNanos) {
+                this.stop();
+            } else if (this.active) {
+                this.apply();
+            } else if (!this.savedSettings.isEmpty()) {
+                // settings that could not be restored when the bulk load ended, applied and indices were cleared then
+                this.restore(RequestOptions.DEFAULT, Long.MAX_VALUE);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Bulk load check failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void apply() {
+        for (String index : this.indices) {
+            if (this.applied.contains(index)) {
+                continue;
+            }
+            try {
+                GetSettingsResponse response = this.restHighLevelClient.indices().getSettings(new GetSettingsRequest()
+                        .indices(index)
+                        .names(REFRESH_INTERVAL, NUMBER_OF_REPLICAS), RequestOptions.DEFAULT);
+
+                // an alias or pattern may resolve to several indices
+                List<String> concreteIndices = new ArrayList<>();
+                for (Iterator<String> it = response.getIndexToSettings().keysIt(); it.hasNext(); ) {
+                    concreteIndices.add(it.next());
+                }
+                for (String concreteIndex : concreteIndices) {
+                    Settings current = response.getIndexToSettings().get(concreteIndex);
+                    if (this.savedSettings.containsKey(concreteIndex) || this.isBulkLoadSettings(current)) {
+                        continue;
+                    }
+                    this.restHighLevelClient.indices().putSettings(new UpdateSettingsRequest(concreteIndex)
+                            .settings(this.bulkLoadSettings), RequestOptions.DEFAULT);
+                    this.savedSettings.put(concreteIndex, current);
+                    log.info("Applied bulk load settings to {}, saved {}", concreteIndex, current);
+                }
+                this.applied.add(index);
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() != RestStatus.NOT_FOUND) {
+                    log.warn("Could not apply bulk load settings to {}: {}", index, e.getMessage());
+                }
+                // a missing index is created by its first bulk and tried again on the next check
+            } catch (IOException e) {
+                log.warn("Could not apply bulk load settings to {}: {}", index, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Restores the saved settings, entries that fail with an I/O error stay saved to be tried again.
+     */
+    private void restore(RequestOptions options, long timeoutNanos) {
+        long start = System.nanoTime();
+        for (Iterator<Map.Entry<String, Settings>> it = this.savedSettings.entrySet().iterator(); it.hasNext(); ) {
+            if (System.nanoTime() - start >= timeoutNanos) {
+                log.warn("Gave up restoring settings of {}", this.savedSettings.keySet());
+                return;
+            }
+            Map.Entry<String, Settings> saved = it.next();
+            Settings.Builder settings = Settings.builder();
+            for (String name : new String[]{REFRESH_INTERVAL, NUMBER_OF_REPLICAS}) {
+                String value = saved.getValue().get(name);
+                if (value == null) {
+                    // was not set on the index, back to the default
+                    settings.putNull(name);
+                } else {
+                    settings.put(name, value);
+                }
+            }
+
+            try {
+                this.restHighLevelClient.indices().putSettings(new UpdateSettingsRequest(saved.getKey())
+                        .settings(settings), options);
+                log.info("Restored settings of {}", saved.getKey());
+                it.remove();
+            } catch (ElasticsearchStatusException e) {
+                log.warn("Could not restore settings of {}: {}", saved.getKey(), e.getMessage());
+                if (e.status() == RestStatus.NOT_FOUND) {
+                    it.remove();
+                }
+            } catch (IOException e) {
+                log.warn("Could not restore settings of {}, trying again: {}", saved.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private boolean isBulkLoadSettings(Settings settings) {
+        return Objects.equals(settings.get(REFRESH_INTERVAL), this.bulkLoadSettings.get(REFRESH_INTERVAL))
+                && Objects.equals(settings.get(NUMBER_OF_REPLICAS), this.bulkLoadSettings.get(NUMBER_OF_REPLICAS));
+    }
+
+    /**
+     * Restores within {@code shutdownTimeoutMillis}, each request bounded by the same timeout.
+     */
+    @Override
+    public void destroy() {
+        this.checkScheduler.shutdownNow();
+        int timeout = (int) Math.min(Integer.MAX_VALUE, this.shutdownTimeoutMillis);
+        RequestOptions options = RequestOptions.DEFAULT.toBuilder()
+                .setRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(timeout)
+                        .setConnectTimeout(timeout)
+                        .setSocketTimeout(timeout)
+                        .build())
+                .build();
+
+        synchronized (this) {
+            if (this.active) {
+                log.info("Ending bulk load on shutdown, restoring settings of {}", this.savedSettings.keySet());
+                this.active = false;
+            }
+            this.restore(options, TimeUnit.MILLISECONDS.toNanos(this.shutdownTimeoutMillis));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed bulk items are worth sending again and how long to wait before doing so.
+ * Only rejections that clear up by themselves (429 thread pool rejections and 503) are retried.
+ */
+public class BulkRetryPolicy {
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    public BulkRetryPolicy(ElasticsearchSinkProperties.Retry retry) {
+        this.maxRetries = retry.getMaxRetries();
+        this.initialBackoffMillis = retry.getInitialBackoffMillis();
+        this.maxBackoffMillis = retry.getMaxBackoffMillis();
+    }
+
+    public boolean canRetry(int attempt) {
+        return attempt < this.maxRetries;
+    }
+
+    public boolean isRetryable(BulkItemResponse itemResponse) {
+        if (!itemResponse.isFailed()) {
+            return false;
+        }
+        RestStatus status = itemResponse.getFailure().getStatus();
+
+        return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * Builds a request holding only the retryable failed items of {@code request}.
+     */
+    public BulkRequest retryRequest(BulkRequest request, BulkResponse response) {
+        BulkRequest retryRequest = new BulkRequest();
+        retryRequest.timeout(request.timeout());
+        retryRequest.setRefreshPolicy(request.getRefreshPolicy());
+        List<DocWriteRequest<?>> requests = request.requests();
+
+        for (BulkItemResponse itemResponse : response) {
+            if (this.isRetryable(itemResponse)) {
+                retryRequest.add(requests.get(itemResponse.getItemId()));
+            }
+        }
+
+        return retryRequest;
+    }
+
+    /**
+     * Exponential backoff for the given zero based attempt with "equal jitter": half of the delay is fixed,
+     * the other half random, so rejected writers do not come back in lockstep.
+     */
+    public long backoffMillis(int attempt) {
+        long backoff = this.maxBackoffMillis;
+        if (attempt < 31) {
+            backoff = Math.min(this.maxBackoffMillis, this.initialBackoffMillis << attempt);
+        }
+        long half = backoff / 2;
+
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+}
@@ -0,0 +1,64 @@
+package com.windowforsun.scs.es.sink;
+
+import org.springframework.integration.aggregator.GroupConditionProvider;
+import org.springframework.integration.aggregator.ReleaseStrategy;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.messaging.Message;
+
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * Releases a group when either the message count reaches {@code batchSize} or the estimated
+ * serialized size reaches {@code batchMaxBytes}. The running size is kept as the group condition, so every
+ * message is measured once when it is added and the size goes away with its group, whether released or expired.
+ * The batch size is read on every message so it may change while running.
+ */
+public class BulkSizeReleaseStrategy implements ReleaseStrategy, GroupConditionProvider {
+    private final IntSupplier batchSize;
+    private final long batchMaxBytes;
+
+    public BulkSizeReleaseStrategy(int batchSize, long batchMaxBytes) {
+        this(() -> batchSize, batchMaxBytes);
+    }
+
+    public BulkSizeReleaseStrategy(IntSupplier batchSize, long batchMaxBytes) {
+        this.batchSize = batchSize;
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    @Override
+    public boolean canRelease(MessageGroup group) {
+        if (group.size() >= this.batchSize.getAsInt()) {
+            return true;
+        }
+
+        if (this.batchMaxBytes <= 0) {
+            return false;
+        }
+
+        return bytes(group) >= this.batchMaxBytes;
+    }
+
+    @Override
+    public BiFunction<Message<?>, String, String> getGroupConditionSupplier() {
+        return (message, condition) -> this.batchMaxBytes <= 0
+                ? null
+                : String.valueOf((condition == null ? 0L : Long.parseLong(condition)) + MessageSizeEstimator.estimate(message));
+    }
+
+    private static long bytes(MessageGroup group) {
+        String condition = group.getCondition();
+        if (condition != null) {
+            return Long.parseLong(condition);
+        }
+
+        // not added through the aggregator, measured as a whole
+        long bytes = 0L;
+        for (Message<?> message : group.getMessages()) {
+            bytes += MessageSizeEstimator.estimate(message);
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,29 @@
+package com.windowforsun.scs.es.sink;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+/**
+ * {@code circuitBreaker} component of {@code /actuator/health}. Always {@code UP}, as an open breaker pauses the
+ * input binding on purpose and must not fail the aggregate health; the {@code state} detail shows whether the
+ * {@link BulkCircuitBreaker} is closed, open or half-open.
+ */
+public class CircuitBreakerHealthIndicator implements HealthIndicator {
+    private final BulkCircuitBreaker circuitBreaker;
+
+    public CircuitBreakerHealthIndicator(BulkCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Health health() {
+        BulkCircuitBreaker.State state = this.circuitBreaker.getState();
+
+        return Health.up()
+                .withDetail("state", state)
+                .withDetail("binding", this.circuitBreaker.getBinding())
+                .withDetail("failureRate", this.circuitBreaker.getFailureRate())
+                .withDetail("slowCallRate", this.circuitBreaker.getSlowCallRate())
+                .build();
+    }
+}
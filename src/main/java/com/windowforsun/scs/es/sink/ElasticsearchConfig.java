@@ -5,13 +5,24 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.elasticsearch.RestClientBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
 @Configuration
 public class ElasticsearchConfig {
     @Value("${spring.elasticsearch.rest.uris}")
@@ -20,17 +31,81 @@ public class ElasticsearchConfig {
     private String elasticsearchUsername;
     @Value("${spring.elasticsearch.rest.password}")
     private String elasticsearchPassword;
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+
+    private HttpHost[] hosts() {
+        return Arrays.stream(this.elasticsearchUris.split(","))
+                .map(String::trim)
+                .filter(uri -> !uri.isEmpty())
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+    }
 
+    /**
+     * {@link RestClientBuilderCustomizer} beans are applied like Spring Boot does for its own client.
+     */
     @Bean
-    public RestHighLevelClient client() {
+    public RestHighLevelClient client(ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                      ObjectProvider<RestClientBuilderCustomizer> restClientBuilderCustomizers) {
+        ElasticsearchSinkProperties.Client client = elasticsearchSinkProperties.getClient();
+        List<RestClientBuilderCustomizer> customizers = restClientBuilderCustomizers.orderedStream().collect(Collectors.toList());
         CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
         credentialsProvider.setCredentials(AuthScope.ANY,
                 new UsernamePasswordCredentials(this.elasticsearchUsername, this.elasticsearchPassword));
 
-        RestClientBuilder builder = RestClient.builder(HttpHost.create(this.elasticsearchUris))
-                .setHttpClientConfigCallback(httpClientBuilder ->
-                        httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider));
+        RestClientBuilder builder = RestClient.builder(this.hosts())
+                .setRequestConfigCallback(requestConfigBuilder -> {
+                    requestConfigBuilder.setConnectTimeout(client.getConnectTimeoutMillis())
+                            .setSocketTimeout(client.getSocketTimeoutMillis());
+                    customizers.forEach(customizer -> customizer.customize(requestConfigBuilder));
+
+                    return requestConfigBuilder;
+                })
+                .setHttpClientConfigCallback(httpClientBuilder -> {
+                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider)
+                            .setMaxConnPerRoute(client.getMaxConnectionsPerRoute())
+                            .setMaxConnTotal(client.getMaxConnectionsTotal());
+                    if (client.getIoThreadCount() > 0) {
+                        httpClientBuilder.setDefaultIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(client.getIoThreadCount())
+                                .build());
+                    }
+                    if (client.getKeepAliveMillis() > 0) {
+                        httpClientBuilder.setKeepAliveStrategy((response, context) -> client.getKeepAliveMillis());
+                    }
+                    customizers.forEach(customizer -> customizer.customize(httpClientBuilder));
+
+                    return httpClientBuilder;
+                });
+        if (client.isSniff()) {
+            // a failing node triggers a sniff round right away instead of waiting for the next interval
+            builder.setFailureListener(this.sniffOnFailureListener);
+        }
+        customizers.forEach(customizer -> customizer.customize(builder));
 
         return new RestHighLevelClient(builder);
     }
+
+    /**
+     * Replaces the configured hosts with the HTTP addresses of all nodes of the cluster, so requests are
+     * spread over every node rather than the seed hosts only.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.client", name = "sniff", havingValue = "true")
+    public Sniffer sniffer(RestHighLevelClient restHighLevelClient, ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        ElasticsearchSinkProperties.Client client = elasticsearchSinkProperties.getClient();
+        ElasticsearchNodesSniffer.Scheme scheme = "https".equals(this.hosts()[0].getSchemeName())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                : ElasticsearchNodesSniffer.Scheme.HTTP;
+
+        Sniffer sniffer = Sniffer.builder(restHighLevelClient.getLowLevelClient())
+                .setSniffIntervalMillis(client.getSniffIntervalMillis())
+                .setSniffAfterFailureDelayMillis(client.getSniffAfterFailureDelayMillis())
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restHighLevelClient.getLowLevelClient(),
+                        client.getSocketTimeoutMillis(), scheme))
+                .build();
+        this.sniffOnFailureListener.setSniffer(sniffer);
+
+        return sniffer;
+    }
 }
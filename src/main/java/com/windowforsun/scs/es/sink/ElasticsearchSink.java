@@ -1,40 +1,42 @@
 package com.windowforsun.scs.es.sink;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.DocWriteResponse;
-import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
-import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentType;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.aggregator.AggregatingMessageHandler;
-import org.springframework.integration.aggregator.MessageCountReleaseStrategy;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlowBuilder;
 import org.springframework.integration.dsl.IntegrationFlows;
+import org.springframework.integration.expression.FunctionExpression;
 import org.springframework.integration.expression.ValueExpression;
+import org.springframework.integration.store.MessageGroup;
 import org.springframework.integration.store.MessageGroupStore;
 import org.springframework.integration.store.SimpleMessageStore;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
-
-import java.io.IOException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Map;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Configuration
@@ -42,28 +44,53 @@ public class ElasticsearchSink {
 
     @Bean
     public AggregatingMessageHandler aggregator(MessageGroupStore messageGroupStore,
-                                                ElasticsearchSinkProperties elasticsearchSinkProperties) {
+                                                ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                IndexRequestFactory indexRequestFactory,
+                                                ElasticsearchSinkMetrics elasticsearchSinkMetrics,
+                                                AdaptiveBatchController adaptiveBatchController,
+                                                AcknowledgmentSequencer acknowledgmentSequencer) {
         AggregatingMessageHandler handler = new AggregatingMessageHandler(
-                group -> group.getMessages()
-                        .stream()
-                        .map(m -> createIndexRequest(m, elasticsearchSinkProperties))
-                        .reduce(new BulkRequest(),
-                                (bulk, indexRequest) -> {
-                                    bulk.add(indexRequest);
-                                    return bulk;
-                                },
-                                (bulk1, bulk2) -> {
-                                    bulk1.add(bulk2.requests());
-
-                                    return bulk1;
-                                })
+                group -> {
+                    elasticsearchSinkMetrics.recordAggregatorWait(group.getTimestamp());
+
+                    List<DocWriteRequest<?>> indexRequests;
+                    try {
+                        indexRequests = group.getMessages()
+                                .stream()
+                                .map(indexRequestFactory::createIndexRequest)
+                                .filter(Objects::nonNull)
+                                .collect(Collectors.toList());
+                    } catch (RuntimeException e) {
+                        // the tracked messages of the group would hold back their partitions for good
+                        acknowledgmentSequencer.fail(AcknowledgmentSequencer.acknowledgments(group.getMessages()));
+                        throw e;
+                    }
+                    if (elasticsearchSinkProperties.isDeduplicate()) {
+                        List<DocWriteRequest<?>> compacted = BulkCompactor.lastWritePerDocument(indexRequests);
+                        elasticsearchSinkMetrics.recordDeduplicated(indexRequests.size() - compacted.size());
+                        indexRequests = compacted;
+                    }
+
+                    BulkRequest bulkRequest = new BulkRequest().add(indexRequests);
+
+                    // manual acknowledgments of the grouped messages travel with the bulk
+                    return MessageBuilder.withPayload(bulkRequest)
+                            .setHeader(AcknowledgmentSequencer.ACKNOWLEDGMENTS,
+                                    AcknowledgmentSequencer.acknowledgments(group.getMessages()))
+                            .build();
+                }
         );
 
-        handler.setCorrelationStrategy(message -> "");
-        handler.setReleaseStrategy(new MessageCountReleaseStrategy(elasticsearchSinkProperties.getBatchSize()));
-        long groupTimeout = elasticsearchSinkProperties.getGroupTimeout();
-        if (groupTimeout >= 0) {
-            handler.setGroupTimeoutExpression(new ValueExpression<>(groupTimeout));
+        // each key is released on its own count, size and timeout
+        handler.setCorrelationStrategy(indexRequestFactory::correlationKey);
+        BulkSizeReleaseStrategy releaseStrategy = new BulkSizeReleaseStrategy(adaptiveBatchController::getBatchSize,
+                elasticsearchSinkProperties.getBatchMaxBytes());
+        handler.setReleaseStrategy(releaseStrategy);
+        handler.setGroupConditionSupplier(releaseStrategy.getGroupConditionSupplier());
+        if (adaptiveBatchController.isEnabled()) {
+            handler.setGroupTimeoutExpression(new FunctionExpression<MessageGroup>(group -> adaptiveBatchController.getGroupTimeout()));
+        } else if (elasticsearchSinkProperties.getGroupTimeout() >= 0) {
+            handler.setGroupTimeoutExpression(new ValueExpression<>(elasticsearchSinkProperties.getGroupTimeout()));
         }
         handler.setMessageStore(messageGroupStore);
         handler.setExpireGroupsUponCompletion(true);
@@ -84,15 +111,26 @@ public class ElasticsearchSink {
     @Bean
     public IntegrationFlow elasticsearchConsumerFlow(AggregatingMessageHandler aggregator,
                                                      ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                     IndexRequestFactory indexRequestFactory,
                                                      MessageHandler bulkRequestHandler,
-                                                     MessageHandler indexRequestHandler) {
+                                                     MessageHandler indexRequestHandler,
+                                                     BatchRequestHandler batchRequestHandler,
+                                                     AcknowledgmentSequencer acknowledgmentSequencer) {
         final IntegrationFlowBuilder builder = IntegrationFlows
                 .from(Consumer.class, gateway -> gateway.beanName("elasticsearchConsumer"));
 
         int batchSize = elasticsearchSinkProperties.getBatchSize();
 
-        if (batchSize > 1) {
-            builder.handle(aggregator)
+        if (elasticsearchSinkProperties.isBatchMode()) {
+            builder.handle(batchRequestHandler);
+        } else if (batchSize > 1 || elasticsearchSinkProperties.getAdaptive().isEnabled()) {
+            if (indexRequestFactory.isPayloadCorrelated()) {
+                // the payload is read once for the correlation key and the write request built on release
+                builder.transform(Message.class, indexRequestFactory::withFields);
+            }
+            // offsets are queued on arrival, groups of different keys are released in any order
+            builder.transform(Message.class, acknowledgmentSequencer::track)
+                    .handle(aggregator)
                     .handle(bulkRequestHandler);
         } else {
             builder.handle(indexRequestHandler);
@@ -102,146 +140,159 @@ public class ElasticsearchSink {
     }
 
     @Bean
-    public MessageHandler bulkRequestHandler(RestHighLevelClient restHighLevelClient,
-                                             ElasticsearchSinkProperties elasticsearchSinkProperties) {
-        return message -> this.index(restHighLevelClient, (BulkRequest) message.getPayload(), elasticsearchSinkProperties.isAsync());
+    public IndexNameResolver indexNameResolver(ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        return new IndexNameResolver(elasticsearchSinkProperties.getDateTimeRollingFormat(),
+                elasticsearchSinkProperties.getDateTimeRollingZone());
     }
 
     @Bean
-    public MessageHandler indexRequestHandler(RestHighLevelClient restHighLevelClient, ElasticsearchSinkProperties elasticsearchSinkProperties) {
-        return message -> this.index(restHighLevelClient, createIndexRequest(message, elasticsearchSinkProperties), elasticsearchSinkProperties.isAsync());
+    public EventTimeExtractor eventTimeExtractor(ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        return new EventTimeExtractor(elasticsearchSinkProperties, elasticsearchSinkProperties.getDateTimeRollingZone());
     }
 
-    private IndexRequest createIndexRequest(Message<?> message,
-                                            ElasticsearchSinkProperties elasticsearchSinkProperties) {
-        IndexRequest indexRequest = new IndexRequest();
-        final String INDEX_ID = "INDEX_ID";
-        final String INDEX_NAME = "INDEX_NAME";
+    @Bean
+    public IndexRequestFactory indexRequestFactory(ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                   IndexNameResolver indexNameResolver,
+                                                   EventTimeExtractor eventTimeExtractor,
+                                                   ObjectProvider<BulkLoadManager> bulkLoadManager) {
+        return new IndexRequestFactory(elasticsearchSinkProperties, indexNameResolver, eventTimeExtractor,
+                bulkLoadManager.getIfAvailable());
+    }
 
-        String index = (String) message.getHeaders().getOrDefault(INDEX_NAME, elasticsearchSinkProperties.getIndex());
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.bulk-load", name = "enabled", havingValue = "true")
+    public BulkLoadManager bulkLoadManager(RestHighLevelClient restHighLevelClient,
+                                           ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                           ElasticsearchSinkMetrics elasticsearchSinkMetrics) {
+        return new BulkLoadManager(restHighLevelClient, elasticsearchSinkProperties, elasticsearchSinkMetrics);
+    }
 
-        String dateTimeRollingFormat = elasticsearchSinkProperties.getDateTimeRollingFormat();
-        if (StringUtils.isNotEmpty(dateTimeRollingFormat)) {
-            try {
-                String format = LocalDateTime.now().format(DateTimeFormatter.ofPattern(dateTimeRollingFormat));
-                index += "-" + format;
-            } catch (Exception ignore) {
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.bulk-load", name = "enabled", havingValue = "true")
+    public BulkLoadEndpoint bulkLoadEndpoint(BulkLoadManager bulkLoadManager) {
+        return new BulkLoadEndpoint(bulkLoadManager);
+    }
 
-            }
-        }
+    @Bean
+    public ElasticsearchSinkMetrics elasticsearchSinkMetrics(MeterRegistry meterRegistry,
+                                                             MessageGroupStore messageGroupStore) {
+        return new ElasticsearchSinkMetrics(meterRegistry, messageGroupStore);
+    }
 
-        indexRequest.index(index);
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.spill", name = "enabled", havingValue = "true")
+    public SpillJournal spillJournal(RestHighLevelClient restHighLevelClient,
+                                     ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                     ElasticsearchSinkMetrics elasticsearchSinkMetrics) {
+        return new SpillJournal(restHighLevelClient, elasticsearchSinkProperties, elasticsearchSinkMetrics);
+    }
 
-        String id = (String) message.getHeaders().getOrDefault(INDEX_ID, StringUtils.EMPTY);
+    @Bean
+    public ElasticsearchWriter elasticsearchWriter(RestHighLevelClient restHighLevelClient,
+                                                   ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                   ElasticsearchSinkMetrics elasticsearchSinkMetrics,
+                                                   ObjectProvider<SpillJournal> spillJournal,
+                                                   AdaptiveBatchController adaptiveBatchController,
+                                                   ObjectProvider<ShardGrouper> shardGrouper,
+                                                   ObjectProvider<BulkCircuitBreaker> bulkCircuitBreaker) {
+        return new ElasticsearchWriter(restHighLevelClient, elasticsearchSinkProperties, elasticsearchSinkMetrics,
+                spillJournal.getIfAvailable(), adaptiveBatchController, shardGrouper.getIfAvailable(),
+                bulkCircuitBreaker.getIfAvailable());
+    }
 
-        if (elasticsearchSinkProperties.getId() != null) {
-            id = elasticsearchSinkProperties.getId().getValue(message, String.class);
-        }
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.circuit-breaker", name = "enabled", havingValue = "true")
+    public BulkCircuitBreaker bulkCircuitBreaker(RestHighLevelClient restHighLevelClient,
+                                                 ObjectProvider<BindingsLifecycleController> bindingsLifecycleController,
+                                                 ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                 ElasticsearchSinkMetrics elasticsearchSinkMetrics) {
+        return new BulkCircuitBreaker(restHighLevelClient.getLowLevelClient(), bindingsLifecycleController.getIfAvailable(),
+                elasticsearchSinkProperties, elasticsearchSinkMetrics);
+    }
 
-        indexRequest.id(id);
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.circuit-breaker", name = "enabled", havingValue = "true")
+    public CircuitBreakerHealthIndicator circuitBreakerHealthIndicator(BulkCircuitBreaker bulkCircuitBreaker) {
+        return new CircuitBreakerHealthIndicator(bulkCircuitBreaker);
+    }
 
-        Object messagePayload = message.getPayload();
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.shard-grouping", name = "enabled", havingValue = "true")
+    public ShardGrouper shardGrouper(RestHighLevelClient restHighLevelClient,
+                                     ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        return new ShardGrouper(restHighLevelClient.getLowLevelClient(), elasticsearchSinkProperties);
+    }
 
-        if (messagePayload instanceof String) {
-            indexRequest.source((String) messagePayload, XContentType.JSON);
-        } else if (messagePayload instanceof Map) {
-            indexRequest.source((Map<String, ?>) messagePayload, XContentType.JSON);
-        } else if (messagePayload instanceof XContentBuilder) {
-            indexRequest.source((XContentBuilder) messagePayload);
-        }
+    @Bean
+    public AdaptiveBatchController adaptiveBatchController(ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                           ElasticsearchSinkMetrics elasticsearchSinkMetrics) {
+        AdaptiveBatchController adaptiveBatchController = new AdaptiveBatchController(elasticsearchSinkProperties);
+        elasticsearchSinkMetrics.registerAdaptiveBatchController(adaptiveBatchController);
 
-        String routing = elasticsearchSinkProperties.getRouting();
-        if (StringUtils.isNotEmpty(routing)) {
-            indexRequest.routing(routing);
-        }
+        return adaptiveBatchController;
+    }
 
-        long timeout = elasticsearchSinkProperties.getTimeoutSeconds();
-        if (timeout > 0) {
-            indexRequest.timeout(TimeValue.timeValueSeconds(timeout));
-        }
+    @Bean
+    public AcknowledgmentSequencer acknowledgmentSequencer(ObjectProvider<BindingsLifecycleController> bindingsLifecycleController) {
+        return new AcknowledgmentSequencer(bindingsLifecycleController.getIfAvailable());
+    }
 
-        log.info("createIndexRequest index : {}, payload : {}", index, messagePayload);
-        return indexRequest;
-    }
-
-    private void index(RestHighLevelClient restHighLevelClient,
-                       BulkRequest request,
-                       boolean isAsync) {
-        Consumer<BulkResponse> handleResponse = responses -> {
-            if (log.isDebugEnabled() || responses.hasFailures()) {
-                for (BulkItemResponse itemResponse : responses) {
-                    if (itemResponse.isFailed()) {
-                        log.error(String.format("Index operation [i=%d, id=%s, index=%s] failed: %s",
-                                itemResponse.getItemId(), itemResponse.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage())
-                        );
-                    } else {
-                        DocWriteResponse r = itemResponse.getResponse();
-                        log.debug(String.format("Index operation [i=%d, id=%s, index=%s] succeeded: document [id=%s, version=%d] was written on shard %s.",
-                                itemResponse.getItemId(), itemResponse.getId(), itemResponse.getIndex(), r.getId(), r.getVersion(), r.getShardId())
-                        );
-                    }
-                }
-            }
+    @Bean
+    public MessageHandler bulkRequestHandler(ElasticsearchWriter elasticsearchWriter,
+                                             AcknowledgmentSequencer acknowledgmentSequencer) {
+        return message -> acknowledgmentSequencer.dispatch(message,
+                () -> elasticsearchWriter.index((BulkRequest) message.getPayload()));
+    }
 
-            if (responses.hasFailures()) {
-                throw new IllegalStateException("Bulk indexing operation completed with failures: " + responses.buildFailureMessage());
-            }
-        };
+    @Bean
+    public BatchRequestHandler batchRequestHandler(IndexRequestFactory indexRequestFactory,
+                                                   ElasticsearchWriter elasticsearchWriter,
+                                                   AcknowledgmentSequencer acknowledgmentSequencer,
+                                                   ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        return new BatchRequestHandler(indexRequestFactory, elasticsearchWriter, acknowledgmentSequencer,
+                elasticsearchSinkProperties);
+    }
 
-        if (isAsync) {
-            log.info("bulkRequest async document desc : {}", request.getDescription());
-            restHighLevelClient.bulkAsync(request, RequestOptions.DEFAULT, new ActionListener<BulkResponse>() {
-                @Override
-                public void onResponse(BulkResponse bulkItemResponses) {
-                    handleResponse.accept(bulkItemResponses);
-                }
+    @Bean
+    public MessageHandler indexRequestHandler(ElasticsearchWriter elasticsearchWriter,
+                                              IndexRequestFactory indexRequestFactory,
+                                              AcknowledgmentSequencer acknowledgmentSequencer) {
+        return message -> {
+            DocWriteRequest<?> indexRequest = indexRequestFactory.createIndexRequest(message);
+            // a skipped message is still acknowledged in its turn
+            acknowledgmentSequencer.dispatch(message,
+                    () -> indexRequest != null ? elasticsearchWriter.write(indexRequest) : CompletableFuture.completedFuture(null));
+        };
+    }
 
-                @Override
-                public void onFailure(Exception e) {
-                    throw new IllegalStateException("Error occurred while performing bulk index operation: " + e.getMessage(), e);
-                }
-            });
-        } else {
-            try {
-                log.info("bulkRequest document desc : {}", request.getDescription());
-                BulkResponse bulkResponse = restHighLevelClient.bulk(request, RequestOptions.DEFAULT);
-                handleResponse.accept(bulkResponse);
-            } catch (Exception e) {
-                throw new IllegalStateException("Error occurred while performing bulk index operation: " + e.getMessage(), e);
-            }
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.reactive", name = "enabled", havingValue = "true")
+    public ReactiveBulkWriter reactiveBulkWriter(WebClient.Builder webClientBuilder,
+                                                 @Value("${spring.elasticsearch.rest.uris}") String uris,
+                                                 @Value("${spring.elasticsearch.rest.username:}") String username,
+                                                 @Value("${spring.elasticsearch.rest.password:}") String password,
+                                                 IndexRequestFactory indexRequestFactory,
+                                                 ElasticsearchSinkProperties elasticsearchSinkProperties,
+                                                 ElasticsearchSinkMetrics elasticsearchSinkMetrics,
+                                                 ObjectProvider<SpillJournal> spillJournal,
+                                                 ObjectProvider<ShardGrouper> shardGrouper,
+                                                 AcknowledgmentSequencer acknowledgmentSequencer) {
+        if (StringUtils.isNotEmpty(username)) {
+            webClientBuilder.defaultHeaders(headers -> headers.setBasicAuth(username, password));
         }
-    }
 
-    private void index(RestHighLevelClient restHighLevelClient,
-                       IndexRequest request,
-                       boolean isAsync) {
-        Consumer<IndexResponse> handleResponse = response ->
-                log.debug(String.format("Index operation [index=%s] succeeded: document [id=%s, version=%d] was written on shard %s.",
-                        response.getIndex(), response.getId(), response.getVersion(), response.getShardId())
-                );
-
-        if (isAsync) {
-            log.info("indexRequest async document desc : {}", request.getDescription());
-            restHighLevelClient.indexAsync(request, RequestOptions.DEFAULT, new ActionListener<IndexResponse>() {
-                @Override
-                public void onResponse(IndexResponse indexResponse) {
-                    handleResponse.accept(indexResponse);
-                }
+        return new ReactiveBulkWriter(webClientBuilder.build(), uris, indexRequestFactory, elasticsearchSinkProperties,
+                elasticsearchSinkMetrics, spillJournal.getIfAvailable(), shardGrouper.getIfAvailable(), acknowledgmentSequencer);
+    }
 
-                @Override
-                public void onFailure(Exception e) {
-                    throw new IllegalStateException("Error occurred while indexing document: " + e.getMessage(), e);
-                }
-            });
-        } else {
-            try {
-                log.info("indexRequest document desc : {}", request.getDescription());
-                IndexResponse response = restHighLevelClient.index(request, RequestOptions.DEFAULT);
-                handleResponse.accept(response);
-            } catch (IOException e) {
-                throw new IllegalStateException("Error occurred while indexing document: " + e.getMessage(), e);
-            }
-        }
+    /**
+     * Reactive alternative to {@code elasticsearchConsumer}, select it with
+     * {@code spring.cloud.function.definition=elasticsearchReactiveConsumer}.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.sink.reactive", name = "enabled", havingValue = "true")
+    public Function<Flux<Message<?>>, Mono<Void>> elasticsearchReactiveConsumer(ReactiveBulkWriter reactiveBulkWriter) {
+        return reactiveBulkWriter::consume;
     }
 
     @Getter
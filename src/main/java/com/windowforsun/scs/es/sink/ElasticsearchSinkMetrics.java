@@ -0,0 +1,197 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.springframework.integration.store.MessageGroupStore;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Meters of the sink hot path, all named {@code elasticsearch.sink.*}.
+ */
+public class ElasticsearchSinkMetrics {
+    private static final String PREFIX = "elasticsearch.sink.";
+    private static final Pattern PARSED_TYPE = Pattern.compile("^Elasticsearch exception \\[type=([^,\\]]+)");
+    private final MeterRegistry meterRegistry;
+    private final Timer bulkLatency;
+    private final Timer indexLatency;
+    private final DistributionSummary bulkDocuments;
+    private final DistributionSummary bulkBytes;
+    private final Timer aggregatorWait;
+    private final Counter bulkRetries;
+    private final Counter spilledDocuments;
+    private final Counter replayedDocuments;
+    private final Counter deadLetteredBulks;
+    private final Counter deduplicatedDocuments;
+    private final Counter droppedDocuments;
+
+    public ElasticsearchSinkMetrics(MeterRegistry meterRegistry, MessageGroupStore messageGroupStore) {
+        this.meterRegistry = meterRegistry;
+        this.bulkLatency = Timer.builder(PREFIX + "bulk.latency")
+                .description("Round trip time of bulk requests")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.indexLatency = Timer.builder(PREFIX + "index.latency")
+                .description("Round trip time of single document index requests")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.bulkDocuments = DistributionSummary.builder(PREFIX + "bulk.documents")
+                .description("Documents per bulk request")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.bulkBytes = DistributionSummary.builder(PREFIX + "bulk.bytes")
+                .description("Estimated size of bulk requests")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.aggregatorWait = Timer.builder(PREFIX + "aggregator.wait")
+                .description("Time from the first message of a group to its release")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.bulkRetries = Counter.builder(PREFIX + "bulk.retries")
+                .description("Bulk requests sent again for rejected items")
+                .register(meterRegistry);
+        this.spilledDocuments = Counter.builder(PREFIX + "spill.documents")
+                .description("Documents written to the spill journal while the cluster was unreachable")
+                .register(meterRegistry);
+        this.replayedDocuments = Counter.builder(PREFIX + "spill.replayed.documents")
+                .description("Documents replayed from the spill journal")
+                .register(meterRegistry);
+        this.deadLetteredBulks = Counter.builder(PREFIX + "spill.dead-lettered.bulks")
+                .description("Spilled bulks moved to the dead letter file instead of being replayed")
+                .register(meterRegistry);
+        this.deduplicatedDocuments = Counter.builder(PREFIX + "aggregator.deduplicated")
+                .description("Documents dropped from a bulk for a later write of the same id")
+                .register(meterRegistry);
+        this.droppedDocuments = Counter.builder(PREFIX + "dropped.documents")
+                .description("Messages dropped as no write request could be built from them")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "aggregator.messages", messageGroupStore, MessageGroupStore::getMessageCountForAllMessageGroups)
+                .description("Messages held by the aggregator")
+                .register(meterRegistry);
+    }
+
+    public void registerInFlightRequests(AtomicInteger inFlightRequests) {
+        Gauge.builder(PREFIX + "requests.in-flight", inFlightRequests, AtomicInteger::get)
+                .description("Async requests waiting for a response")
+                .register(this.meterRegistry);
+    }
+
+    public void registerSpillJournal(SpillJournal spillJournal) {
+        Gauge.builder(PREFIX + "spill.pending", spillJournal, SpillJournal::getPendingBytes)
+                .description("Spilled bulks not replayed yet")
+                .baseUnit("bytes")
+                .register(this.meterRegistry);
+    }
+
+    public void registerBulkLoadManager(BulkLoadManager bulkLoadManager) {
+        Gauge.builder(PREFIX + "bulk-load.active", bulkLoadManager, manager -> manager.isActive() ? 1 : 0)
+                .description("Whether ingestion-optimized index settings are applied")
+                .register(this.meterRegistry);
+    }
+
+    public void registerCircuitBreaker(BulkCircuitBreaker circuitBreaker) {
+        Gauge.builder(PREFIX + "circuit-breaker.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("Circuit breaker state, 0 closed, 1 open, 2 half-open")
+                .register(this.meterRegistry);
+    }
+
+    public void registerAdaptiveBatchController(AdaptiveBatchController adaptiveBatchController) {
+        Gauge.builder(PREFIX + "batch.size", adaptiveBatchController, AdaptiveBatchController::getBatchSize)
+                .description("Effective aggregator batch size")
+                .register(this.meterRegistry);
+        Gauge.builder(PREFIX + "group.timeout", adaptiveBatchController, AdaptiveBatchController::getGroupTimeout)
+                .description("Effective aggregator group timeout")
+                .baseUnit("milliseconds")
+                .register(this.meterRegistry);
+    }
+
+    public void recordBulk(BulkRequest request, long startNanos) {
+        this.bulkLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        this.bulkDocuments.record(request.numberOfActions());
+        this.bulkBytes.record(request.estimatedSizeInBytes());
+    }
+
+    public void recordIndex(long startNanos) {
+        this.indexLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAggregatorWait(long groupTimestamp) {
+        this.aggregatorWait.record(System.currentTimeMillis() - groupTimestamp, TimeUnit.MILLISECONDS);
+    }
+
+    public void recordRetry() {
+        this.bulkRetries.increment();
+    }
+
+    public void recordDeduplicated(int documents) {
+        this.deduplicatedDocuments.increment(documents);
+    }
+
+    public void recordDropped() {
+        this.droppedDocuments.increment();
+    }
+
+    public void recordSpill(int documents) {
+        this.spilledDocuments.increment(documents);
+    }
+
+    public void recordReplay(int documents) {
+        this.replayedDocuments.increment(documents);
+    }
+
+    public void recordCircuitBreakerTransition(BulkCircuitBreaker.State state) {
+        Counter.builder(PREFIX + "circuit-breaker.transitions")
+                .description("Circuit breaker state changes by new state")
+                .tag("state", state.name().toLowerCase(Locale.ROOT))
+                .register(this.meterRegistry)
+                .increment();
+    }
+
+    public void recordDeadLetter() {
+        this.deadLetteredBulks.increment();
+    }
+
+    public void recordItemFailure(BulkItemResponse.Failure failure) {
+        Counter.builder(PREFIX + "bulk.item.failures")
+                .description("Failed bulk items by Elasticsearch error type")
+                .tag("type", failureType(failure.getCause()))
+                .tag("status", String.valueOf(failure.getStatus().getStatus()))
+                .register(this.meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Elasticsearch type of an item failure. Failures parsed from a response are plain {@link ElasticsearchException}s
+     * that only carry the type in their message.
+     */
+    static String failureType(Exception cause) {
+        if (cause.getClass() == ElasticsearchException.class && cause.getMessage() != null) {
+            Matcher matcher = PARSED_TYPE.matcher(cause.getMessage());
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+        }
+
+        return ElasticsearchException.getExceptionName(cause);
+    }
+
+    public void recordRequestFailure(String type, Exception e) {
+        Counter.builder(PREFIX + "request.failures")
+                .description("Requests that failed without a response")
+                .tag("request", type)
+                .tag("exception", e.getClass().getSimpleName())
+                .register(this.meterRegistry)
+                .increment();
+    }
+}
@@ -3,16 +3,170 @@ package com.windowforsun.scs.es.sink;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.expression.Expression;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import java.time.ZoneId;
 
 @Data
 @ConfigurationProperties("elasticsearch.sink")
 public class ElasticsearchSinkProperties {
     private String index;
     private String dateTimeRollingFormat;
+    private ZoneId dateTimeRollingZone = ZoneId.systemDefault();
+    private DateTimeRollingSource dateTimeRollingSource = DateTimeRollingSource.PROCESSING_TIME;
+    private String dateTimeRollingHeader = KafkaHeaders.RECEIVED_TIMESTAMP;
+    private String dateTimeRollingField;
     private Expression id;
-    private String routing;
+    private String idField;
+    private IdStrategy idStrategy = IdStrategy.AUTO;
+    private Expression operation;
+    private Expression routing;
+    private String routingField;
+    private String indexSuffixField;
     private long timeoutSeconds;
+    private boolean validateJsonPayload;
     private boolean async;
+    private WriterEngine writerEngine = WriterEngine.HIGH_LEVEL;
+    private int maxInFlightRequests;
+    private boolean batchMode;
     private int batchSize = 1;
+    private long batchMaxBytes = -1L;
     private long groupTimeout = -1L;
+    private Correlation correlation = Correlation.NONE;
+    private boolean deduplicate;
+    private final Update update = new Update();
+    private final Retry retry = new Retry();
+    private final Spill spill = new Spill();
+    private final Client client = new Client();
+    private final Compression compression = new Compression();
+    private final Adaptive adaptive = new Adaptive();
+    private final Reactive reactive = new Reactive();
+    private final BulkLoad bulkLoad = new BulkLoad();
+    private final ShardGrouping shardGrouping = new ShardGrouping();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    public enum Correlation {
+        NONE,
+        INDEX,
+        INDEX_AND_ROUTING
+    }
+
+    public enum IdStrategy {
+        AUTO,
+        TIME_BASED,
+        RECORD
+    }
+
+    public enum Operation {
+        INDEX,
+        CREATE,
+        UPDATE,
+        UPSERT,
+        SCRIPT,
+        DELETE
+    }
+
+    public enum WriterEngine {
+        HIGH_LEVEL,
+        STREAMING
+    }
+
+    public enum DateTimeRollingSource {
+        PROCESSING_TIME,
+        HEADER,
+        PAYLOAD
+    }
+
+    @Data
+    public static class Update {
+        private String script;
+        private String scriptLang = "painless";
+        private boolean scriptedUpsert;
+        private int retryOnConflict;
+    }
+
+    @Data
+    public static class Retry {
+        private int maxRetries = 3;
+        private long initialBackoffMillis = 100L;
+        private long maxBackoffMillis = 10_000L;
+    }
+
+    @Data
+    public static class Spill {
+        private boolean enabled;
+        private String directory = System.getProperty("java.io.tmpdir") + "/elasticsearch-sink-spill";
+        private int segmentBytes = 64 * 1024 * 1024;
+        private long replayIntervalMillis = 1_000L;
+        private int replayMaxBulks = 10;
+        private int replayMaxAttempts = 5;
+    }
+
+    @Data
+    public static class Client {
+        private int maxConnectionsPerRoute = 10;
+        private int maxConnectionsTotal = 30;
+        private int ioThreadCount;
+        private int connectTimeoutMillis = 1_000;
+        private int socketTimeoutMillis = 30_000;
+        private long keepAliveMillis = -1L;
+        private boolean sniff;
+        private int sniffIntervalMillis = 5 * 60 * 1_000;
+        private int sniffAfterFailureDelayMillis = 60 * 1_000;
+    }
+
+    @Data
+    public static class Compression {
+        private boolean enabled;
+        private int level = 6;
+        private long minBytes = 1024L;
+    }
+
+    @Data
+    public static class Adaptive {
+        private boolean enabled;
+        private int minBatchSize = 100;
+        private int maxBatchSize = 10_000;
+        private int batchSizeStep = 100;
+        private long minGroupTimeout = 100L;
+        private long maxGroupTimeout = 5_000L;
+        private long groupTimeoutStep = 100L;
+        private long targetLatencyMillis = 1_000L;
+        private double backoffFactor = 0.5;
+    }
+
+    @Data
+    public static class Reactive {
+        private boolean enabled;
+        private int concurrency = 4;
+    }
+
+    @Data
+    public static class BulkLoad {
+        private boolean enabled;
+        private long thresholdDocumentsPerSecond = -1L;
+        private long quietPeriodMillis = 60_000L;
+        private long checkIntervalMillis = 1_000L;
+        private String refreshInterval = "-1";
+        private int numberOfReplicas = 0;
+        private long shutdownTimeoutMillis = 10_000L;
+    }
+
+    @Data
+    public static class ShardGrouping {
+        private boolean enabled;
+        private long metadataRefreshMillis = 60_000L;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+        private boolean enabled;
+        private String binding = "input";
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private int failureRateThreshold = 50;
+        private long slowCallDurationMillis = 10_000L;
+        private int slowCallRateThreshold = 80;
+        private long openDurationMillis = 30_000L;
+    }
 }
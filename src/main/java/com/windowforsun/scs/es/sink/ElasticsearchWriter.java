@@ -0,0 +1,432 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.replication.ReplicationRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sends index, update, delete and bulk requests to Elasticsearch. In async mode at most {@code maxInFlightRequests}
+ * requests are outstanding at a time; further calls block the consumer thread until a response arrives.
+ * Bulk items rejected with 429/503 are sent again on their own according to {@link BulkRetryPolicy}.
+ * With a {@link SpillJournal} requests failing on I/O, i.e. while the cluster is unreachable, are spilled and
+ * reported as written so consumption goes on.
+ * Bulks go through the high-level client, or the {@link LowLevelBulkTransport} with the {@code STREAMING} writer
+ * engine or compression, ordered by target shard first with a {@link ShardGrouper}.
+ * Outcomes and latencies are reported to the {@link BulkCircuitBreaker}, if any.
+ */
+@Slf4j
+public class ElasticsearchWriter implements DisposableBean {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30L;
+    private final RestHighLevelClient restHighLevelClient;
+    private final boolean async;
+    private final int maxInFlightRequests;
+    private final Semaphore inFlightPermits;
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final BulkRetryPolicy retryPolicy;
+    private final ScheduledExecutorService retryScheduler;
+    private final ElasticsearchSinkMetrics metrics;
+    private final SpillJournal spillJournal;
+    private final LowLevelBulkTransport lowLevelBulkTransport;
+    private final AdaptiveBatchController adaptiveBatchController;
+    private final ShardGrouper shardGrouper;
+    private final BulkCircuitBreaker circuitBreaker;
+
+    public ElasticsearchWriter(RestHighLevelClient restHighLevelClient,
+                               ElasticsearchSinkProperties elasticsearchSinkProperties,
+                               ElasticsearchSinkMetrics metrics,
+                               SpillJournal spillJournal,
+                               AdaptiveBatchController adaptiveBatchController,
+                               ShardGrouper shardGrouper,
+                               BulkCircuitBreaker circuitBreaker) {
+        this.restHighLevelClient = restHighLevelClient;
+        this.metrics = metrics;
+        this.spillJournal = spillJournal;
+        this.adaptiveBatchController = adaptiveBatchController;
+        this.shardGrouper = shardGrouper;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics.registerInFlightRequests(this.inFlightRequests);
+        this.async = elasticsearchSinkProperties.isAsync();
+        this.maxInFlightRequests = elasticsearchSinkProperties.getMaxInFlightRequests();
+        this.inFlightPermits = this.maxInFlightRequests > 0 ? new Semaphore(this.maxInFlightRequests) : null;
+        this.retryPolicy = new BulkRetryPolicy(elasticsearchSinkProperties.getRetry());
+        this.lowLevelBulkTransport = elasticsearchSinkProperties.getCompression().isEnabled()
+                || elasticsearchSinkProperties.getWriterEngine() == ElasticsearchSinkProperties.WriterEngine.STREAMING
+                ? new LowLevelBulkTransport(restHighLevelClient.getLowLevelClient(), elasticsearchSinkProperties)
+                : null;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("es-sink-retry-");
+        threadFactory.setDaemon(true);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    public int getInFlightRequests() {
+        return this.inFlightRequests.get();
+    }
+
+    /**
+     * Sends the bulk, retrying rejected items. In sync mode failures are thrown to the caller and the
+     * returned future is already complete, in async mode it completes once the last attempt is answered.
+     */
+    public CompletableFuture<Void> index(BulkRequest bulkRequest) {
+        BulkRequest request = this.shardGrouper != null ? this.shardGrouper.group(bulkRequest) : bulkRequest;
+        if (this.async) {
+            log.debug("bulkRequest async document desc : {}", request.getDescription());
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            this.acquire();
+            this.bulkAsync(request, 0, new ArrayList<>(), result);
+            return result;
+        } else {
+            BulkRequest pending = request;
+            List<String> failures = new ArrayList<>();
+            for (int attempt = 0; pending != null; attempt++) {
+                if (attempt > 0) {
+                    this.sleep(this.retryPolicy.backoffMillis(attempt - 1));
+                }
+                BulkResponse bulkResponse;
+                long start = System.nanoTime();
+                try {
+                    log.debug("bulkRequest document desc : {}", pending.getDescription());
+                    bulkResponse = this.lowLevel(pending)
+                            ? this.lowLevelBulkTransport.bulk(pending)
+                            : this.restHighLevelClient.bulk(pending, RequestOptions.DEFAULT);
+                    this.observe(pending, bulkResponse, start);
+                } catch (Exception e) {
+                    this.metrics.recordRequestFailure("bulk", e);
+                    this.onFailure(e);
+                    if (this.spill(pending, e)) {
+                        this.throwFailures(failures);
+                        break;
+                    }
+                    throw new IllegalStateException("Error occurred while performing bulk index operation: " + e.getMessage(), e);
+                }
+                pending = this.handleResponse(pending, bulkResponse, attempt, failures);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void bulkAsync(BulkRequest request, int attempt, List<String> failures, CompletableFuture<Void> result) {
+        long start = System.nanoTime();
+        ActionListener<BulkResponse> listener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse bulkItemResponses) {
+                observe(request, bulkItemResponses, start);
+                BulkRequest retryRequest;
+                try {
+                    retryRequest = handleResponse(request, bulkItemResponses, attempt, failures);
+                } catch (Exception e) {
+                    log.error(e.getMessage());
+                    release();
+                    result.completeExceptionally(e);
+                    return;
+                }
+
+                if (retryRequest == null) {
+                    release();
+                    result.complete(null);
+                } else {
+                    scheduleRetry(retryRequest, attempt, failures, result);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                release();
+                metrics.recordRequestFailure("bulk", e);
+                ElasticsearchWriter.this.onFailure(e);
+                try {
+                    if (spill(request, e)) {
+                        throwFailures(failures);
+                        result.complete(null);
+                        return;
+                    }
+                } catch (Exception spillFailure) {
+                    log.error(spillFailure.getMessage());
+                    result.completeExceptionally(spillFailure);
+                    return;
+                }
+                log.error("Error occurred while performing bulk index operation: " + e.getMessage(), e);
+                result.completeExceptionally(e);
+            }
+        };
+
+        try {
+            if (this.lowLevel(request)) {
+                this.lowLevelBulkTransport.bulkAsync(request, listener);
+            } else {
+                this.restHighLevelClient.bulkAsync(request, RequestOptions.DEFAULT, listener);
+            }
+        } catch (RuntimeException e) {
+            // thrown before the request was sent, the listener releases the permit and completes the result
+            listener.onFailure(e);
+        }
+    }
+
+    private void observe(BulkRequest request, BulkResponse response, long start) {
+        this.metrics.recordBulk(request, start);
+        int rejected = 0;
+        if (response.hasFailures()) {
+            for (BulkItemResponse itemResponse : response) {
+                if (this.retryPolicy.isRetryable(itemResponse)) {
+                    rejected++;
+                }
+            }
+        }
+        long latencyNanos = System.nanoTime() - start;
+        this.adaptiveBatchController.onBulk(latencyNanos, rejected);
+        if (this.circuitBreaker != null) {
+            this.circuitBreaker.onCall(latencyNanos, rejected > 0);
+        }
+    }
+
+    private void onFailure(Exception e) {
+        this.adaptiveBatchController.onFailure();
+        if (this.circuitBreaker != null) {
+            this.circuitBreaker.onFailure(e);
+        }
+    }
+
+    private void observe(long start) {
+        this.metrics.recordIndex(start);
+        if (this.circuitBreaker != null) {
+            this.circuitBreaker.onCall(System.nanoTime() - start, false);
+        }
+    }
+
+    private boolean lowLevel(BulkRequest request) {
+        return this.lowLevelBulkTransport != null && this.lowLevelBulkTransport.applies(request);
+    }
+
+    private void scheduleRetry(BulkRequest retryRequest, int attempt, List<String> failures, CompletableFuture<Void> result) {
+        try {
+            this.retryScheduler.schedule(() -> this.bulkAsync(retryRequest, attempt + 1, failures, result),
+                    this.retryPolicy.backoffMillis(attempt), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            this.release();
+            log.error("Dropped retry of {} bulk items during shutdown", retryRequest.numberOfActions());
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Logs the item results and returns the request to send next when some items were rejected and may
+     * succeed later, {@code null} when nothing is left to send.
+     * Items that can not succeed are collected in {@code failures} and reported once retrying is over.
+     */
+    private BulkRequest handleResponse(BulkRequest request, BulkResponse responses, int attempt, List<String> failures) {
+        if (log.isDebugEnabled() || responses.hasFailures()) {
+            for (BulkItemResponse itemResponse : responses) {
+                if (itemResponse.isFailed()) {
+                    this.metrics.recordItemFailure(itemResponse.getFailure());
+                    log.error(String.format("Index operation [i=%d, id=%s, index=%s, attempt=%d] failed: %s",
+                            itemResponse.getItemId(), itemResponse.getId(), itemResponse.getIndex(), attempt, itemResponse.getFailureMessage())
+                    );
+                } else {
+                    DocWriteResponse r = itemResponse.getResponse();
+                    log.debug(String.format("Index operation [i=%d, id=%s, index=%s] succeeded: document [id=%s, version=%d] was written on shard %s.",
+                            itemResponse.getItemId(), itemResponse.getId(), itemResponse.getIndex(), r.getId(), r.getVersion(), r.getShardId())
+                    );
+                }
+            }
+        }
+
+        BulkRequest retryRequest = null;
+        if (responses.hasFailures()) {
+            retryRequest = this.retryPolicy.retryRequest(request, responses);
+            int retryable = retryRequest.numberOfActions();
+            long failed = Arrays.stream(responses.getItems()).filter(BulkItemResponse::isFailed).count();
+
+            if (retryable < failed || (retryable > 0 && !this.retryPolicy.canRetry(attempt))) {
+                failures.add(responses.buildFailureMessage());
+            }
+            if (retryable == 0 || !this.retryPolicy.canRetry(attempt)) {
+                retryRequest = null;
+            } else {
+                this.metrics.recordRetry();
+            }
+        }
+
+        if (retryRequest == null) {
+            this.throwFailures(failures);
+        }
+
+        return retryRequest;
+    }
+
+    private void throwFailures(List<String> failures) {
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Bulk indexing operation completed with failures: " + String.join("", failures));
+        }
+    }
+
+    /**
+     * Sends a single write, updates and deletes go as a bulk of one.
+     */
+    public CompletableFuture<Void> write(DocWriteRequest<?> request) {
+        if (request instanceof IndexRequest) {
+            return this.index((IndexRequest) request);
+        }
+
+        BulkRequest bulkRequest = new BulkRequest().add(request);
+        if (request instanceof UpdateRequest) {
+            bulkRequest.timeout(((UpdateRequest) request).timeout());
+        } else if (request instanceof ReplicationRequest) {
+            bulkRequest.timeout(((ReplicationRequest<?>) request).timeout());
+        }
+
+        return this.index(bulkRequest);
+    }
+
+    public CompletableFuture<Void> index(IndexRequest request) {
+        if (this.lowLevelBulkTransport != null) {
+            // the low-level transport only speaks the bulk endpoint, the document goes as a bulk of one
+            BulkRequest bulkRequest = new BulkRequest().add(request);
+            bulkRequest.timeout(request.timeout());
+            if (this.lowLevelBulkTransport.applies(bulkRequest)) {
+                return this.index(bulkRequest);
+            }
+        }
+
+        Consumer<IndexResponse> handleResponse = response ->
+                log.debug(String.format("Index operation [index=%s] succeeded: document [id=%s, version=%d] was written on shard %s.",
+                        response.getIndex(), response.getId(), response.getVersion(), response.getShardId())
+                );
+
+        if (this.async) {
+            log.debug("indexRequest async document desc : {}", request.getDescription());
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            this.acquire();
+            long start = System.nanoTime();
+            ActionListener<IndexResponse> listener = new ActionListener<IndexResponse>() {
+                @Override
+                public void onResponse(IndexResponse indexResponse) {
+                    release();
+                    observe(start);
+                    handleResponse.accept(indexResponse);
+                    result.complete(null);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    release();
+                    metrics.recordRequestFailure("index", e);
+                    ElasticsearchWriter.this.onFailure(e);
+                    try {
+                        if (spill(new BulkRequest().add(request), e)) {
+                            result.complete(null);
+                            return;
+                        }
+                    } catch (Exception spillFailure) {
+                        log.error(spillFailure.getMessage());
+                        result.completeExceptionally(spillFailure);
+                        return;
+                    }
+                    log.error("Error occurred while indexing document: " + e.getMessage(), e);
+                    result.completeExceptionally(e);
+                }
+            };
+            try {
+                this.restHighLevelClient.indexAsync(request, RequestOptions.DEFAULT, listener);
+            } catch (RuntimeException e) {
+                listener.onFailure(e);
+            }
+            return result;
+        } else {
+            long start = System.nanoTime();
+            try {
+                log.debug("indexRequest document desc : {}", request.getDescription());
+                IndexResponse response = this.restHighLevelClient.index(request, RequestOptions.DEFAULT);
+                this.observe(start);
+                handleResponse.accept(response);
+            } catch (IOException e) {
+                this.metrics.recordRequestFailure("index", e);
+                this.onFailure(e);
+                if (this.spill(new BulkRequest().add(request), e)) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                throw new IllegalStateException("Error occurred while indexing document: " + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                // e.g. rejected with 429
+                this.onFailure(e);
+                throw e;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Spills the request when it failed because the cluster could not be reached, other failures are left
+     * to the caller.
+     */
+    private boolean spill(BulkRequest request, Exception e) {
+        if (this.spillJournal == null || !(e instanceof IOException)) {
+            return false;
+        }
+        log.warn("Spilling {} documents, cluster unreachable: {}", request.numberOfActions(), e.getMessage());
+        this.spillJournal.append(request);
+
+        return true;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry rejected bulk items", e);
+        }
+    }
+
+    private void acquire() {
+        if (this.inFlightPermits != null) {
+            try {
+                this.inFlightPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an in-flight request slot", e);
+            }
+        }
+        this.inFlightRequests.incrementAndGet();
+    }
+
+    private void release() {
+        this.inFlightRequests.decrementAndGet();
+        if (this.inFlightPermits != null) {
+            this.inFlightPermits.release();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        // let outstanding async requests complete before the client is closed
+        if (this.inFlightPermits != null
+                && !this.inFlightPermits.tryAcquire(this.maxInFlightRequests, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("{} in-flight requests did not complete before shutdown", this.inFlightRequests.get());
+        }
+        this.retryScheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,100 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * Picks the time an index name is rolled on: the processing time, a header such as the Kafka record
+ * timestamp, or a field of the JSON payload. The payload field is read with a {@link JsonPointerExtractor}
+ * that stops at the field, the rest of the document is not read.
+ * Messages without a usable timestamp fall back to the processing time.
+ */
+@Slf4j
+public class EventTimeExtractor {
+    private final ElasticsearchSinkProperties.DateTimeRollingSource source;
+    private final String header;
+    private final JsonPointerExtractor fieldExtractor;
+    private final ZoneId zone;
+
+    public EventTimeExtractor(ElasticsearchSinkProperties elasticsearchSinkProperties, ZoneId zone) {
+        this.source = elasticsearchSinkProperties.getDateTimeRollingSource();
+        this.header = elasticsearchSinkProperties.getDateTimeRollingHeader();
+        this.fieldExtractor = new JsonPointerExtractor(elasticsearchSinkProperties.getDateTimeRollingField());
+        this.zone = zone;
+
+        if (this.source == ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD && this.fieldExtractor.isEmpty()) {
+            throw new IllegalArgumentException("date-time-rolling-field is required for the PAYLOAD date-time-rolling-source");
+        }
+    }
+
+    public boolean isEventTime() {
+        return this.source != ElasticsearchSinkProperties.DateTimeRollingSource.PROCESSING_TIME;
+    }
+
+    public boolean isPayloadTime() {
+        return this.source == ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD;
+    }
+
+    public long extract(Message<?> message) {
+        return this.extract(message, this.isPayloadTime() ? this.fieldExtractor.extract(message.getPayload())[0] : null);
+    }
+
+    /**
+     * Same as {@link #extract(Message)} with the payload field already read by the caller.
+     */
+    public long extract(Message<?> message, Object payloadTimestamp) {
+        Object timestamp = null;
+
+        if (this.source == ElasticsearchSinkProperties.DateTimeRollingSource.HEADER) {
+            timestamp = message.getHeaders().get(this.header);
+        } else if (this.source == ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD) {
+            timestamp = payloadTimestamp;
+        }
+
+        Long epochMillis = timestamp == null ? null : this.toEpochMillis(timestamp);
+        if (epochMillis == null) {
+            if (this.isEventTime()) {
+                log.debug("No event time in message, using processing time : {}", timestamp);
+            }
+            return System.currentTimeMillis();
+        }
+
+        return epochMillis;
+    }
+
+    private Long toEpochMillis(Object timestamp) {
+        if (timestamp instanceof Number) {
+            return ((Number) timestamp).longValue();
+        } else if (timestamp instanceof Instant) {
+            return ((Instant) timestamp).toEpochMilli();
+        } else if (timestamp instanceof Date) {
+            return ((Date) timestamp).getTime();
+        } else if (timestamp instanceof String) {
+            String text = (String) timestamp;
+            try {
+                if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+                    return Long.parseLong(text);
+                }
+                TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(text, ZonedDateTime::from, LocalDateTime::from);
+                ZonedDateTime dateTime = parsed instanceof ZonedDateTime
+                        ? (ZonedDateTime) parsed
+                        : ((LocalDateTime) parsed).atZone(this.zone);
+
+                return dateTime.toInstant().toEpochMilli();
+            } catch (NumberFormatException | DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+}
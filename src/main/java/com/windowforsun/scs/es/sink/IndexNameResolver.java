@@ -0,0 +1,119 @@
+package com.windowforsun.scs.es.sink;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Appends the {@code dateTimeRollingFormat} suffix to index names.
+ * The formatter is compiled once and the resolved names are cached for the current time bucket, the finest
+ * unit the pattern prints (a day for {@code yyyy-MM-dd}, an hour for {@code yyyy-MM-dd-HH}, ...),
+ * so the suffix is only formatted again when the bucket boundary is crossed.
+ * A few recent buckets are kept for event time rolling, where lagging events still hit the previous one.
+ * Index names may come from the payload ({@code indexSuffixField}), so each bucket caches a bounded number of them,
+ * further names are built on every call.
+ */
+public class IndexNameResolver {
+    private static final ChronoUnit[] BUCKET_UNITS = {ChronoUnit.DAYS, ChronoUnit.HOURS, ChronoUnit.MINUTES, ChronoUnit.SECONDS};
+    private static final int MAX_BUCKETS = 4;
+    private static final int MAX_INDEX_NAMES = 1024;
+    private final DateTimeFormatter formatter;
+    private final ZoneId zone;
+    private final ChronoUnit bucketUnit;
+    private volatile Bucket[] buckets = new Bucket[0];
+
+    public IndexNameResolver(String dateTimeRollingFormat, ZoneId zone) {
+        this.zone = zone;
+        if (StringUtils.isEmpty(dateTimeRollingFormat)) {
+            this.formatter = null;
+            this.bucketUnit = null;
+        } else {
+            try {
+                this.formatter = DateTimeFormatter.ofPattern(dateTimeRollingFormat).withZone(zone);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid date-time-rolling-format: " + dateTimeRollingFormat, e);
+            }
+            this.bucketUnit = bucketUnit(this.formatter, zone);
+        }
+    }
+
+    public String resolve(String index) {
+        return this.resolve(index, System.currentTimeMillis());
+    }
+
+    public String resolve(String index, long epochMillis) {
+        if (this.formatter == null || index == null) {
+            return index;
+        }
+
+        Bucket current = null;
+        Bucket[] recent = this.buckets;
+        for (Bucket bucket : recent) {
+            if (epochMillis >= bucket.start && epochMillis < bucket.end) {
+                current = bucket;
+                break;
+            }
+        }
+        if (current == null) {
+            current = this.newBucket(epochMillis);
+            Bucket[] updated = new Bucket[Math.min(recent.length + 1, MAX_BUCKETS)];
+            updated[0] = current;
+            System.arraycopy(recent, 0, updated, 1, updated.length - 1);
+            this.buckets = updated;
+        }
+
+        String indexName = current.indexNames.get(index);
+        if (indexName == null) {
+            indexName = index + "-" + current.suffix;
+            if (current.indexNames.size() < MAX_INDEX_NAMES) {
+                current.indexNames.putIfAbsent(index, indexName);
+            }
+        }
+
+        return indexName;
+    }
+
+    private Bucket newBucket(long epochMillis) {
+        ZonedDateTime start = Instant.ofEpochMilli(epochMillis).atZone(this.zone).truncatedTo(this.bucketUnit);
+
+        return new Bucket(start.toInstant().toEpochMilli(),
+                start.plus(1, this.bucketUnit).toInstant().toEpochMilli(),
+                this.formatter.format(start));
+    }
+
+    /**
+     * Finds the coarsest unit the pattern output does not change within, by truncating a sample
+     * time that has every field set.
+     */
+    private static ChronoUnit bucketUnit(DateTimeFormatter formatter, ZoneId zone) {
+        ZonedDateTime sample = ZonedDateTime.of(2001, 2, 3, 16, 35, 46, 789_000_000, zone);
+        String formatted = formatter.format(sample);
+
+        for (ChronoUnit unit : BUCKET_UNITS) {
+            if (formatted.equals(formatter.format(sample.truncatedTo(unit)))) {
+                return unit;
+            }
+        }
+
+        return ChronoUnit.MILLIS;
+    }
+
+    private static class Bucket {
+        private final long start;
+        private final long end;
+        private final String suffix;
+        private final Map<String, String> indexNames = new ConcurrentHashMap<>();
+
+        private Bucket(long start, long end, String suffix) {
+            this.start = start;
+            this.end = end;
+            this.suffix = suffix;
+        }
+    }
+}
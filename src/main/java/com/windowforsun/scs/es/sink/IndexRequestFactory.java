@@ -0,0 +1,373 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+@Slf4j
+public class IndexRequestFactory {
+    public static final String INDEX_ID = "INDEX_ID";
+    public static final String INDEX_NAME = "INDEX_NAME";
+    public static final String INDEX_OPERATION = "INDEX_OPERATION";
+    static final String PAYLOAD_FIELDS = "INDEX_PAYLOAD_FIELDS";
+    private static final int ID_FIELD = 0;
+    private static final int ROUTING_FIELD = 1;
+    private static final int INDEX_SUFFIX_FIELD = 2;
+    private static final int TIMESTAMP_FIELD = 3;
+    private final ElasticsearchSinkProperties elasticsearchSinkProperties;
+    private final IndexNameResolver indexNameResolver;
+    private final EventTimeExtractor eventTimeExtractor;
+    private final BulkLoadManager bulkLoadManager;
+    private final TimeBasedIdGenerator idGenerator = new TimeBasedIdGenerator();
+    private final JsonPointerExtractor fieldExtractor;
+
+    public IndexRequestFactory(ElasticsearchSinkProperties elasticsearchSinkProperties,
+                               IndexNameResolver indexNameResolver,
+                               EventTimeExtractor eventTimeExtractor,
+                               BulkLoadManager bulkLoadManager) {
+        this.elasticsearchSinkProperties = elasticsearchSinkProperties;
+        this.indexNameResolver = indexNameResolver;
+        this.eventTimeExtractor = eventTimeExtractor;
+        this.bulkLoadManager = bulkLoadManager;
+        this.fieldExtractor = new JsonPointerExtractor(
+                elasticsearchSinkProperties.getIdField(),
+                elasticsearchSinkProperties.getRoutingField(),
+                elasticsearchSinkProperties.getIndexSuffixField(),
+                eventTimeExtractor.isPayloadTime() && StringUtils.isNotEmpty(elasticsearchSinkProperties.getDateTimeRollingFormat())
+                        ? elasticsearchSinkProperties.getDateTimeRollingField() : null);
+    }
+
+    /**
+     * Configured payload fields (id, routing, index suffix and event time) read in one pass over the payload,
+     * or taken from the message when {@link #withFields(Message)} read them before.
+     */
+    private Object[] readFields(Message<?> message) {
+        Object fields = message.getHeaders().get(PAYLOAD_FIELDS);
+
+        return fields instanceof Object[] ? (Object[]) fields : this.fieldExtractor.extract(message.getPayload());
+    }
+
+    /**
+     * Whether {@link #correlationKey(Message)} reads the payload, then {@link #withFields(Message)} saves
+     * {@link #createIndexRequest(Message)} reading it again.
+     */
+    public boolean isPayloadCorrelated() {
+        return !this.fieldExtractor.isEmpty()
+                && (this.elasticsearchSinkProperties.getCorrelation() != ElasticsearchSinkProperties.Correlation.NONE
+                || this.eventTimeExtractor.isEventTime());
+    }
+
+    /**
+     * The message with its payload fields read once and carried in a header for the later calls on it.
+     */
+    public Message<?> withFields(Message<?> message) {
+        if (this.fieldExtractor.isEmpty() || message.getHeaders().containsKey(PAYLOAD_FIELDS)) {
+            return message;
+        }
+
+        return MessageBuilder.fromMessage(message)
+                .setHeader(PAYLOAD_FIELDS, this.fieldExtractor.extract(message.getPayload()))
+                .build();
+    }
+
+    public String resolveIndex(Message<?> message) {
+        return this.resolveIndex(message, this.readFields(message));
+    }
+
+    private String resolveIndex(Message<?> message, Object[] fields) {
+        String index = (String) message.getHeaders().getOrDefault(INDEX_NAME, this.elasticsearchSinkProperties.getIndex());
+
+        if (fields[INDEX_SUFFIX_FIELD] != null) {
+            index = index + "-" + fields[INDEX_SUFFIX_FIELD].toString().toLowerCase(Locale.ROOT);
+        }
+
+        if (StringUtils.isEmpty(this.elasticsearchSinkProperties.getDateTimeRollingFormat())) {
+            return index;
+        }
+
+        return this.indexNameResolver.resolve(index, this.eventTimeExtractor.extract(message, fields[TIMESTAMP_FIELD]));
+    }
+
+    public String resolveRouting(Message<?> message) {
+        return this.resolveRouting(message, this.readFields(message));
+    }
+
+    /**
+     * Routing of the message from the {@code routing} expression, or else the {@code routingField} of the payload,
+     * {@code null} when neither is set or the value is empty.
+     */
+    private String resolveRouting(Message<?> message, Object[] fields) {
+        String routing = fields[ROUTING_FIELD] == null ? null : fields[ROUTING_FIELD].toString();
+
+        if (this.elasticsearchSinkProperties.getRouting() != null) {
+            routing = this.elasticsearchSinkProperties.getRouting().getValue(message, String.class);
+        }
+
+        return StringUtils.isNotEmpty(routing) ? routing : null;
+    }
+
+    /**
+     * Aggregator group of the message: one group for everything, or one per target index (and routing)
+     * so every bulk only touches the shards of a single index.
+     * Without correlation but with event time rolling the target index is the key, as replayed or lagging
+     * events spread over several rolled indices and every bulk is kept on one of them.
+     */
+    public Object correlationKey(Message<?> message) {
+        switch (this.elasticsearchSinkProperties.getCorrelation()) {
+            case INDEX:
+                return this.resolveIndex(message);
+            case INDEX_AND_ROUTING:
+                Object[] fields = this.readFields(message);
+                String routing = this.resolveRouting(message, fields);
+                String index = this.resolveIndex(message, fields);
+                return routing == null ? index : index + "/" + routing;
+            default:
+                return this.eventTimeExtractor.isEventTime() ? this.resolveIndex(message) : "";
+        }
+    }
+
+    /**
+     * Same key as {@link #correlationKey(Message)}, taken from the request built for the message by
+     * {@link #createIndexRequest(Message)} instead of reading the message again.
+     */
+    public Object correlationKey(DocWriteRequest<?> request) {
+        switch (this.elasticsearchSinkProperties.getCorrelation()) {
+            case INDEX:
+                return request.index();
+            case INDEX_AND_ROUTING:
+                return request.routing() == null ? request.index() : request.index() + "/" + request.routing();
+            default:
+                return this.eventTimeExtractor.isEventTime() ? request.index() : "";
+        }
+    }
+
+    /**
+     * Operation of the message: the {@code operation} expression when set, otherwise the {@code INDEX_OPERATION}
+     * header, {@code index} when neither is present.
+     */
+    public ElasticsearchSinkProperties.Operation resolveOperation(Message<?> message) {
+        Object operation = message.getHeaders().get(INDEX_OPERATION);
+
+        if (this.elasticsearchSinkProperties.getOperation() != null) {
+            operation = this.elasticsearchSinkProperties.getOperation().getValue(message);
+        }
+
+        if (operation == null) {
+            return ElasticsearchSinkProperties.Operation.INDEX;
+        }
+        if (operation instanceof ElasticsearchSinkProperties.Operation) {
+            return (ElasticsearchSinkProperties.Operation) operation;
+        }
+
+        String name = operation instanceof byte[]
+                ? new String((byte[]) operation, StandardCharsets.UTF_8)
+                : operation.toString();
+        try {
+            return ElasticsearchSinkProperties.Operation.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unknown operation: " + name, e);
+        }
+    }
+
+    /**
+     * Builds the write request of the message for its operation, {@code null} when the message is skipped.
+     */
+    public DocWriteRequest<?> createIndexRequest(Message<?> message) {
+        Object[] fields = this.readFields(message);
+        String index = this.resolveIndex(message, fields);
+
+        if (this.bulkLoadManager != null) {
+            this.bulkLoadManager.record(index);
+        }
+
+        String id = (String) message.getHeaders().get(INDEX_ID);
+
+        if (fields[ID_FIELD] != null) {
+            id = fields[ID_FIELD].toString();
+        }
+
+        if (this.elasticsearchSinkProperties.getId() != null) {
+            id = this.elasticsearchSinkProperties.getId().getValue(message, String.class);
+        }
+
+        ElasticsearchSinkProperties.Operation operation = this.resolveOperation(message);
+
+        if (StringUtils.isEmpty(id)) {
+            if (operation != ElasticsearchSinkProperties.Operation.INDEX
+                    && operation != ElasticsearchSinkProperties.Operation.CREATE) {
+                log.warn("Skipping {} message without a document id, index : {}", operation, index);
+                return null;
+            }
+            id = this.generateId(message);
+        }
+
+        long timeout = this.elasticsearchSinkProperties.getTimeoutSeconds();
+        String routing = this.resolveRouting(message, fields);
+
+        if (operation == ElasticsearchSinkProperties.Operation.DELETE) {
+            DeleteRequest deleteRequest = new DeleteRequest(index, id);
+            if (routing != null) {
+                deleteRequest.routing(routing);
+            }
+            if (timeout > 0) {
+                deleteRequest.timeout(TimeValue.timeValueSeconds(timeout));
+            }
+
+            log.debug("createIndexRequest delete index : {}, id : {}", index, id);
+            return deleteRequest;
+        }
+
+        IndexRequest indexRequest = new IndexRequest();
+
+        indexRequest.index(index);
+
+        indexRequest.id(id);
+
+        Object messagePayload = message.getPayload();
+
+        if (messagePayload instanceof String) {
+            indexRequest.source((String) messagePayload, XContentType.JSON);
+        } else if (messagePayload instanceof Map) {
+            indexRequest.source((Map<String, ?>) messagePayload, XContentType.JSON);
+        } else if (messagePayload instanceof XContentBuilder) {
+            indexRequest.source((XContentBuilder) messagePayload);
+        } else if (messagePayload instanceof byte[] || messagePayload instanceof ByteBuffer) {
+            // raw JSON from the binder is used as the document source as is, without decoding
+            BytesReference source = messagePayload instanceof byte[]
+                    ? new BytesArray((byte[]) messagePayload)
+                    : toBytesReference((ByteBuffer) messagePayload);
+
+            if (this.elasticsearchSinkProperties.isValidateJsonPayload() && !isJsonObject(source)) {
+                log.warn("Skipping message that is not a JSON object, index : {}, length : {}", index, source.length());
+                return null;
+            }
+            indexRequest.source(source, XContentType.JSON);
+        }
+
+        if (routing != null) {
+            indexRequest.routing(routing);
+        }
+
+        if (timeout > 0) {
+            indexRequest.timeout(TimeValue.timeValueSeconds(timeout));
+        }
+
+        log.debug("createIndexRequest {} index : {}, payload : {}", operation, index, messagePayload);
+
+        switch (operation) {
+            case CREATE:
+                return indexRequest.opType(DocWriteRequest.OpType.CREATE);
+            case UPDATE:
+            case UPSERT:
+            case SCRIPT:
+                return this.createUpdateRequest(operation, indexRequest, timeout);
+            default:
+                return indexRequest;
+        }
+    }
+
+    /**
+     * Id of a document that was given none: {@code null} to have Elasticsearch generate one, a time-ordered id,
+     * or {@code topic-partition-offset} of the Kafka record so a replayed record overwrites its earlier copy.
+     * Without record coordinates a time-ordered id is used.
+     */
+    private String generateId(Message<?> message) {
+        switch (this.elasticsearchSinkProperties.getIdStrategy()) {
+            case RECORD:
+                Object topic = message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC);
+                Object partition = message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION_ID);
+                Object offset = message.getHeaders().get(KafkaHeaders.OFFSET);
+                if (topic != null && partition != null && offset instanceof Long) {
+                    // zero padded so the ids of a partition sort like their offsets
+                    return topic + "-" + partition + "-" + StringUtils.leftPad(offset.toString(), 19, '0');
+                }
+                log.debug("No record coordinates in message headers, using a time based id");
+                return this.idGenerator.next();
+            case TIME_BASED:
+                return this.idGenerator.next();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Partial update with the payload as the document, as upsert also creating a missing document, or the
+     * configured script run with the payload as its {@code params}.
+     */
+    private UpdateRequest createUpdateRequest(ElasticsearchSinkProperties.Operation operation,
+                                              IndexRequest indexRequest,
+                                              long timeout) {
+        ElasticsearchSinkProperties.Update update = this.elasticsearchSinkProperties.getUpdate();
+        UpdateRequest updateRequest = new UpdateRequest(indexRequest.index(), indexRequest.id())
+                .routing(indexRequest.routing())
+                .retryOnConflict(update.getRetryOnConflict());
+
+        if (operation == ElasticsearchSinkProperties.Operation.SCRIPT) {
+            if (StringUtils.isEmpty(update.getScript())) {
+                throw new IllegalStateException("elasticsearch.sink.update.script must be set for scripted updates");
+            }
+            Map<String, Object> params = XContentHelper.convertToMap(indexRequest.source(), false,
+                    indexRequest.getContentType()).v2();
+            updateRequest.script(new Script(ScriptType.INLINE, update.getScriptLang(), update.getScript(), params));
+            if (update.isScriptedUpsert()) {
+                updateRequest.scriptedUpsert(true).upsert(Collections.emptyMap());
+            }
+        } else {
+            updateRequest.doc(indexRequest)
+                    .docAsUpsert(operation == ElasticsearchSinkProperties.Operation.UPSERT);
+        }
+
+        if (timeout > 0) {
+            updateRequest.timeout(TimeValue.timeValueSeconds(timeout));
+        }
+
+        return updateRequest;
+    }
+
+    private static BytesReference toBytesReference(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new BytesArray(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+
+        return new BytesArray(bytes);
+    }
+
+    /**
+     * Structural check only: the first and last non whitespace bytes must be the braces of an object.
+     */
+    private static boolean isJsonObject(BytesReference source) {
+        int length = source.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(source.get(start))) {
+            start++;
+        }
+        int end = length - 1;
+        while (end > start && Character.isWhitespace(source.get(end))) {
+            end--;
+        }
+
+        return end > start && source.get(start) == '{' && source.get(end) == '}';
+    }
+}
@@ -0,0 +1,188 @@
+package com.windowforsun.scs.es.sink;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a fixed set of fields, given as JSON pointers ({@code /event/timestamp}) or plain top level names,
+ * from a payload in one pass. The pointers are compiled into a tree once; raw {@code String}, {@code byte[]} and
+ * {@code ByteBuffer} JSON is read with a streaming parser that skips every subtree no pointer leads into
+ * and stops as soon as all fields are found, without building the document.
+ * <p>
+ * Only scalar values are returned: strings, {@code Long}, {@code Double} or {@code Boolean}.
+ * Array elements can not be addressed.
+ */
+@Slf4j
+final class JsonPointerExtractor {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private final Node root = new Node();
+    private final int size;
+    private final int fields;
+
+    /**
+     * {@code null} or empty pointers are allowed, their slot is never filled.
+     */
+    JsonPointerExtractor(String... pointers) {
+        this.size = pointers.length;
+        int fields = 0;
+        for (int slot = 0; slot < pointers.length; slot++) {
+            String[] path = toPath(pointers[slot]);
+            if (path == null) {
+                continue;
+            }
+            Node node = this.root;
+            for (String name : path) {
+                node = node.children.computeIfAbsent(name, n -> new Node());
+            }
+            if (node.slot >= 0) {
+                throw new IllegalArgumentException("Field " + pointers[slot] + " is configured twice");
+            }
+            node.slot = slot;
+            fields++;
+        }
+        this.fields = fields;
+    }
+
+    boolean isEmpty() {
+        return this.fields == 0;
+    }
+
+    /**
+     * Values of the pointers in their order, {@code null} for fields that are missing or not scalar.
+     */
+    Object[] extract(Object payload) {
+        Object[] values = new Object[this.size];
+        if (this.fields == 0) {
+            return values;
+        }
+
+        if (payload instanceof Map) {
+            this.extract(this.root, (Map<?, ?>) payload, values);
+            return values;
+        }
+
+        try {
+            if (payload instanceof String) {
+                try (JsonParser parser = JSON_FACTORY.createParser((String) payload)) {
+                    this.extract(parser, values);
+                }
+            } else if (payload instanceof byte[]) {
+                try (JsonParser parser = JSON_FACTORY.createParser((byte[]) payload)) {
+                    this.extract(parser, values);
+                }
+            } else if (payload instanceof ByteBuffer && ((ByteBuffer) payload).hasArray()) {
+                ByteBuffer buffer = (ByteBuffer) payload;
+                try (JsonParser parser = JSON_FACTORY.createParser(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())) {
+                    this.extract(parser, values);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to read fields from payload : {}", e.getMessage());
+        }
+
+        return values;
+    }
+
+    private void extract(Node node, Map<?, ?> map, Object[] values) {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            Object value = map.get(child.getKey());
+            if (child.getValue().slot >= 0 && !(value instanceof Map)) {
+                values[child.getValue().slot] = value;
+            }
+            if (value instanceof Map) {
+                this.extract(child.getValue(), (Map<?, ?>) value, values);
+            }
+        }
+    }
+
+    private void extract(JsonParser parser, Object[] values) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return;
+        }
+
+        Node[] stack = new Node[8];
+        int depth = 0;
+        stack[0] = this.root;
+        int remaining = this.fields;
+
+        while (remaining > 0) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_OBJECT) {
+                if (depth == 0) {
+                    return;
+                }
+                depth--;
+                continue;
+            }
+            if (token != JsonToken.FIELD_NAME) {
+                return;
+            }
+
+            Node child = stack[depth].children.get(parser.getCurrentName());
+            JsonToken value = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+            } else if (value == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+                if (++depth == stack.length) {
+                    Node[] grown = new Node[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, stack.length);
+                    stack = grown;
+                }
+                stack[depth] = child;
+            } else {
+                if (child.slot >= 0) {
+                    values[child.slot] = scalar(parser, value);
+                    remaining--;
+                }
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Object scalar(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getText() : parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getBooleanValue();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * JSON pointer ({@code /event/timestamp}) or a plain top level field name.
+     */
+    static String[] toPath(String field) {
+        if (field == null || field.isEmpty()) {
+            return null;
+        }
+        if (!field.startsWith("/")) {
+            return new String[]{field};
+        }
+
+        String[] path = field.substring(1).split("/", -1);
+        for (int i = 0; i < path.length; i++) {
+            path[i] = path[i].replace("~1", "/").replace("~0", "~");
+        }
+
+        return path;
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>(4);
+        private int slot = -1;
+    }
+}
@@ -0,0 +1,232 @@
+package com.windowforsun.scs.es.sink;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends bulks through the low-level client. Index requests and their sources are written straight into
+ * one growable buffer sent as the request entity, optionally gzip compressed ({@code Content-Encoding: gzip})
+ * at a configurable level once the bulk reaches {@code minBytes}. The response is read with a streaming parser
+ * and only failed items are turned into objects, the returned {@link BulkResponse} holds nothing else.
+ * <p>
+ * Used for every bulk with the {@code STREAMING} writer engine, otherwise only for bulks to compress.
+ */
+public class LowLevelBulkTransport {
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+    private final RestClient restClient;
+    private final boolean streaming;
+    private final boolean compression;
+    private final int level;
+    private final long minBytes;
+
+    public LowLevelBulkTransport(RestClient restClient, ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        ElasticsearchSinkProperties.Compression compression = elasticsearchSinkProperties.getCompression();
+        this.restClient = restClient;
+        this.streaming = elasticsearchSinkProperties.getWriterEngine() == ElasticsearchSinkProperties.WriterEngine.STREAMING;
+        this.compression = compression.isEnabled();
+        this.level = compression.getLevel();
+        this.minBytes = compression.getMinBytes();
+    }
+
+    public boolean applies(BulkRequest bulkRequest) {
+        return this.streaming || this.compress(bulkRequest);
+    }
+
+    private boolean compress(BulkRequest bulkRequest) {
+        return this.compression && bulkRequest.estimatedSizeInBytes() >= this.minBytes;
+    }
+
+    public BulkResponse bulk(BulkRequest bulkRequest) throws IOException {
+        try {
+            return parse(this.restClient.performRequest(this.request(bulkRequest)).getEntity().getContent());
+        } catch (ResponseException e) {
+            throw statusException(e);
+        }
+    }
+
+    public void bulkAsync(BulkRequest bulkRequest, ActionListener<BulkResponse> listener) {
+        Request request;
+        try {
+            request = this.request(bulkRequest);
+        } catch (IOException | RuntimeException e) {
+            // e.g. a document without source, reported like any failed request
+            listener.onFailure(e);
+            return;
+        }
+
+        this.restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                BulkResponse bulkResponse;
+                try {
+                    bulkResponse = parse(response.getEntity().getContent());
+                } catch (IOException | RuntimeException e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e instanceof ResponseException ? statusException((ResponseException) e) : e);
+            }
+        });
+    }
+
+    private Request request(BulkRequest bulkRequest) throws IOException {
+        boolean compress = this.compress(bulkRequest);
+        long estimatedBytes = bulkRequest.estimatedSizeInBytes() + bulkRequest.numberOfActions() * 64L;
+        Buffer body = new Buffer((int) Math.min(Integer.MAX_VALUE - 8, compress ? estimatedBytes / 4 : estimatedBytes));
+        if (compress) {
+            try (OutputStream gzip = new LevelGzipOutputStream(body, this.level)) {
+                BulkBodySerializer.write(bulkRequest, gzip);
+            }
+        } else {
+            BulkBodySerializer.write(bulkRequest, body);
+        }
+
+        ByteArrayEntity entity = body.entity();
+        if (compress) {
+            entity.setContentEncoding("gzip");
+        }
+        Request request = BulkBodySerializer.request(bulkRequest);
+        request.setEntity(entity);
+
+        return request;
+    }
+
+    /**
+     * Reads {@code took} and the failed entries of {@code items}, successful items are skipped token by token.
+     * Elasticsearch writes {@code errors} before {@code items}, when it is {@code false} the items are not read at all.
+     */
+    static BulkResponse parse(InputStream content) throws IOException {
+        long took = 0L;
+        List<BulkItemResponse> failures = new ArrayList<>();
+
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            expect(parser.nextToken(), XContentParser.Token.START_OBJECT);
+
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String field = parser.currentName();
+                XContentParser.Token token = parser.nextToken();
+                if ("took".equals(field)) {
+                    took = parser.longValue();
+                } else if ("errors".equals(field) && token == XContentParser.Token.VALUE_BOOLEAN && !parser.booleanValue()) {
+                    return new BulkResponse(new BulkItemResponse[0], took);
+                } else if ("items".equals(field) && token == XContentParser.Token.START_ARRAY) {
+                    for (int itemId = 0; parser.nextToken() == XContentParser.Token.START_OBJECT; itemId++) {
+                        expect(parser.nextToken(), XContentParser.Token.FIELD_NAME);
+                        String opType = parser.currentName();
+                        expect(parser.nextToken(), XContentParser.Token.START_OBJECT);
+                        BulkItemResponse failure = parseItem(parser, itemId, opType);
+                        if (failure != null) {
+                            failures.add(failure);
+                        }
+                        expect(parser.nextToken(), XContentParser.Token.END_OBJECT);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        return new BulkResponse(failures.toArray(new BulkItemResponse[0]), took);
+    }
+
+    private static BulkItemResponse parseItem(XContentParser parser, int itemId, String opType) throws IOException {
+        String index = null;
+        String id = null;
+        int status = RestStatus.OK.getStatus();
+        ElasticsearchException error = null;
+
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "_index":
+                    index = parser.text();
+                    break;
+                case "_id":
+                    id = parser.textOrNull();
+                    break;
+                case "status":
+                    status = parser.intValue();
+                    break;
+                case "error":
+                    error = ElasticsearchException.fromXContent(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        // like the high-level client only an error makes a failure, a delete of a missing document answers 404 without one
+        if (error == null) {
+            return null;
+        }
+
+        return BulkItemResponse.failure(itemId, DocWriteRequest.OpType.fromString(opType),
+                new BulkItemResponse.Failure(index, "_doc", id, error, RestStatus.fromCode(status)));
+    }
+
+    private static void expect(XContentParser.Token actual, XContentParser.Token expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Unexpected bulk response, expected " + expected + " but got " + actual);
+        }
+    }
+
+    /**
+     * An error response is not an I/O failure, report it the way the high-level client does.
+     */
+    private static ElasticsearchStatusException statusException(ResponseException e) {
+        return new ElasticsearchStatusException(e.getMessage(),
+                RestStatus.fromCode(e.getResponse().getStatusLine().getStatusCode()), e);
+    }
+
+    static class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, 8192);
+            this.def.setLevel(level);
+        }
+    }
+
+    /**
+     * Hands its array to the entity without the copy {@link ByteArrayOutputStream#toByteArray()} makes.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer(int size) {
+            super(Math.max(size, 32));
+        }
+
+        private ByteArrayEntity entity() {
+            return new ByteArrayEntity(this.buf, 0, this.count, NDJSON);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.springframework.messaging.Message;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+final class MessageSizeEstimator {
+    private MessageSizeEstimator() {
+    }
+
+    /**
+     * Approximate bulk body bytes taken by the message source.
+     * Strings are counted by length to avoid encoding them twice and maps by their string form,
+     * which is close enough for flushing around a byte threshold.
+     */
+    static long estimate(Message<?> message) {
+        Object payload = message.getPayload();
+
+        if (payload instanceof String) {
+            return ((String) payload).length();
+        } else if (payload instanceof byte[]) {
+            return ((byte[]) payload).length;
+        } else if (payload instanceof ByteBuffer) {
+            return ((ByteBuffer) payload).remaining();
+        } else if (payload instanceof XContentBuilder) {
+            return BytesReference.bytes((XContentBuilder) payload).length();
+        } else if (payload instanceof Map) {
+            return payload.toString().length();
+        }
+
+        return 0L;
+    }
+}
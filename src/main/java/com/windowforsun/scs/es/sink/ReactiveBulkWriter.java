@@ -0,0 +1,287 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking sink: messages are buffered into bulks of {@code batchSize} or whatever arrived until the next
+ * {@code groupTimeout} tick, and at most {@code reactive.concurrency} bulks are in flight on the {@link WebClient}.
+ * Demand is only requested from the binder while fewer bulks are outstanding, so a slow cluster slows
+ * down consumption instead of piling up requests.
+ * <p>
+ * A bulk rejected as a whole with 429 or 503 is sent again after a backoff and spilled once the retries are used up,
+ * one rejected with 413 is split in halves.
+ * <p>
+ * Manual acknowledgments go through the {@link AcknowledgmentSequencer}: tracked on arrival and sent per partition
+ * in order once their bulk was written. A failed bulk holds back all later acknowledgments and restarts the binding,
+ * so the uncommitted offsets are delivered again. A message no write request can be built from is dropped and
+ * logged instead, as it would fail the same way on every delivery.
+ */
+@Slf4j
+public class ReactiveBulkWriter {
+    private static final Message<?> FLUSH = MessageBuilder.withPayload(new byte[0]).build();
+    private final WebClient webClient;
+    private final String[] hosts;
+    private final AtomicInteger nextHost = new AtomicInteger();
+    private final IndexRequestFactory indexRequestFactory;
+    private final ElasticsearchSinkMetrics metrics;
+    private final BulkRetryPolicy retryPolicy;
+    private final SpillJournal spillJournal;
+    private final ShardGrouper shardGrouper;
+    private final AcknowledgmentSequencer acknowledgmentSequencer;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration responseTimeout;
+    private final int concurrency;
+
+    public ReactiveBulkWriter(WebClient webClient,
+                              String uris,
+                              IndexRequestFactory indexRequestFactory,
+                              ElasticsearchSinkProperties elasticsearchSinkProperties,
+                              ElasticsearchSinkMetrics metrics,
+                              SpillJournal spillJournal,
+                              ShardGrouper shardGrouper,
+                              AcknowledgmentSequencer acknowledgmentSequencer) {
+        this.webClient = webClient;
+        this.hosts = Arrays.stream(uris.split(","))
+                .map(String::trim)
+                .filter(uri -> !uri.isEmpty())
+                // accepts hosts without a scheme like the high-level client does
+                .map(uri -> HttpHost.create(uri).toURI())
+                .toArray(String[]::new);
+        this.indexRequestFactory = indexRequestFactory;
+        this.metrics = metrics;
+        this.retryPolicy = new BulkRetryPolicy(elasticsearchSinkProperties.getRetry());
+        this.spillJournal = spillJournal;
+        this.shardGrouper = shardGrouper;
+        this.acknowledgmentSequencer = acknowledgmentSequencer;
+        this.batchSize = Math.max(1, elasticsearchSinkProperties.getBatchSize());
+        long groupTimeout = elasticsearchSinkProperties.getGroupTimeout();
+        this.flushInterval = Duration.ofMillis(groupTimeout > 0 ? groupTimeout : 1_000L);
+        int socketTimeoutMillis = elasticsearchSinkProperties.getClient().getSocketTimeoutMillis();
+        this.responseTimeout = socketTimeoutMillis > 0 ? Duration.ofMillis(socketTimeoutMillis) : null;
+        this.concurrency = Math.max(1, elasticsearchSinkProperties.getReactive().getConcurrency());
+    }
+
+    public Mono<Void> consume(Flux<Message<?>> messages) {
+        // bufferTimeout fails with "Could not emit buffer due to lack of requests" when the interval passes while
+        // all bulks are in flight, flush ticks are dropped instead while nothing is requested
+        Flux<Message<?>> flushes = Flux.interval(this.flushInterval)
+                .onBackpressureDrop()
+                .map(tick -> FLUSH);
+
+        return Flux.defer(() -> {
+                    int[] size = new int[1];
+                    return messages
+                            .<Message<?>>map(this.acknowledgmentSequencer::track)
+                            // the ticks stop once the messages complete, which flushes the last buffer
+                            .publish(shared -> shared.mergeWith(flushes.takeUntilOther(shared.then())), this.batchSize)
+                            .bufferUntil(message -> {
+                                if (message == FLUSH || ++size[0] >= this.batchSize) {
+                                    size[0] = 0;
+                                    return true;
+                                }
+                                return false;
+                            });
+                })
+                .map(buffer -> buffer.stream().filter(message -> message != FLUSH).collect(Collectors.<Message<?>>toList()))
+                .filter(buffer -> !buffer.isEmpty())
+                // results come back in buffer order, which keeps the acknowledgments in order
+                .flatMapSequential(this::write, this.concurrency)
+                .doOnNext(this::acknowledge)
+                .then();
+    }
+
+    private Mono<Written> write(List<Message<?>> messages) {
+        List<Acknowledgment> acknowledgments = AcknowledgmentSequencer.acknowledgments(messages);
+
+        // built lazily, so a failure ends up as a failed bulk instead of terminating the stream
+        return Mono.fromCallable(() -> this.bulk(messages))
+                .flatMap(bulkRequest -> bulkRequest.numberOfActions() == 0
+                        ? Mono.<Void>empty()
+                        : this.write(bulkRequest, 0, new ArrayList<>()))
+                .thenReturn(new Written(acknowledgments, true))
+                .onErrorResume(e -> {
+                    log.error("Error occurred while performing bulk index operation: " + e.getMessage(), e);
+                    return Mono.just(new Written(acknowledgments, false));
+                });
+    }
+
+    private BulkRequest bulk(List<Message<?>> messages) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (Message<?> message : messages) {
+            DocWriteRequest<?> request;
+            try {
+                request = this.indexRequestFactory.createIndexRequest(message);
+            } catch (RuntimeException e) {
+                log.error("Dropping message, no write request can be built from it: " + e.getMessage(), e);
+                this.metrics.recordDropped();
+                continue;
+            }
+            if (request != null) {
+                bulkRequest.add(request);
+            }
+        }
+
+        if (this.shardGrouper != null && bulkRequest.numberOfActions() > 0) {
+            bulkRequest = this.shardGrouper.group(bulkRequest);
+        }
+
+        return bulkRequest;
+    }
+
+    private Mono<Void> write(BulkRequest bulkRequest, int attempt, List<String> failures) {
+        long start = System.nanoTime();
+
+        return this.send(bulkRequest)
+                .onErrorResume(e -> {
+                    this.metrics.recordRequestFailure("bulk", e);
+                    int status = e instanceof WebClientResponseException ? ((WebClientResponseException) e).getRawStatusCode() : 0;
+                    if (status == 413 && bulkRequest.numberOfActions() > 1) {
+                        int half = bulkRequest.numberOfActions() / 2;
+                        log.warn("Splitting bulk of {} documents, request too large", bulkRequest.numberOfActions());
+                        return this.write(copy(bulkRequest, 0, half), attempt, failures)
+                                .then(this.write(copy(bulkRequest, half, bulkRequest.numberOfActions()), attempt, failures))
+                                .then(Mono.<BulkResponse>empty());
+                    }
+
+                    boolean rejected = status == 429 || status == 503;
+                    if (rejected && this.retryPolicy.canRetry(attempt)) {
+                        this.metrics.recordRetry();
+                        return Mono.delay(Duration.ofMillis(this.retryPolicy.backoffMillis(attempt)))
+                                .then(this.write(bulkRequest, attempt + 1, failures))
+                                .then(Mono.<BulkResponse>empty());
+                    }
+                    boolean unreachable = e instanceof WebClientRequestException || e instanceof TimeoutException;
+                    if (this.spillJournal == null || !(rejected || unreachable)) {
+                        return Mono.error(e);
+                    }
+                    log.warn("Spilling {} documents, cluster unreachable or overloaded: {}", bulkRequest.numberOfActions(), e.getMessage());
+                    this.spillJournal.append(bulkRequest);
+                    return Mono.empty();
+                })
+                .<Void>flatMap(response -> {
+                    this.metrics.recordBulk(bulkRequest, start);
+                    if (!response.hasFailures()) {
+                        return Mono.empty();
+                    }
+
+                    BulkRequest retryRequest = this.retryPolicy.retryRequest(bulkRequest, response);
+                    for (BulkItemResponse itemResponse : response) {
+                        if (itemResponse.isFailed()) {
+                            this.metrics.recordItemFailure(itemResponse.getFailure());
+                        }
+                    }
+                    long failed = Arrays.stream(response.getItems()).filter(BulkItemResponse::isFailed).count();
+                    boolean retry = retryRequest.numberOfActions() > 0 && this.retryPolicy.canRetry(attempt);
+                    if (retryRequest.numberOfActions() < failed || (retryRequest.numberOfActions() > 0 && !retry)) {
+                        failures.add(response.buildFailureMessage());
+                    }
+
+                    if (retry) {
+                        this.metrics.recordRetry();
+                        return Mono.delay(Duration.ofMillis(this.retryPolicy.backoffMillis(attempt)))
+                                .then(this.write(retryRequest, attempt + 1, failures));
+                    }
+
+                    return failures.isEmpty()
+                            ? Mono.empty()
+                            : Mono.error(new IllegalStateException("Bulk indexing operation completed with failures: " + String.join("", failures)));
+                });
+    }
+
+    private static BulkRequest copy(BulkRequest bulkRequest, int from, int to) {
+        BulkRequest copy = new BulkRequest()
+                .add(bulkRequest.requests().subList(from, to))
+                .timeout(bulkRequest.timeout());
+        copy.setRefreshPolicy(bulkRequest.getRefreshPolicy());
+
+        return copy;
+    }
+
+    private Mono<BulkResponse> send(BulkRequest bulkRequest) {
+        byte[] body;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, bulkRequest.estimatedSizeInBytes()));
+            BulkBodySerializer.write(bulkRequest, out);
+            body = out.toByteArray();
+        } catch (IOException e) {
+            return Mono.error(e);
+        }
+
+        Request request = BulkBodySerializer.request(bulkRequest);
+        UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(this.host()).path(request.getEndpoint());
+        request.getParameters().forEach((name, value) -> uri.queryParam(name, value));
+
+        Mono<byte[]> response = this.webClient.post()
+                .uri(uri.build().toUri())
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-ndjson")
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(byte[].class);
+        if (this.responseTimeout != null) {
+            // a hung bulk would otherwise hold its flatMapSequential slot, and every later bulk, for good
+            response = response.timeout(this.responseTimeout);
+        }
+
+        return response
+                .map(bytes -> {
+                    try {
+                        return LowLevelBulkTransport.parse(new ByteArrayInputStream(bytes));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    private String host() {
+        return this.hosts[Math.floorMod(this.nextHost.getAndIncrement(), this.hosts.length)];
+    }
+
+    private void acknowledge(Written written) {
+        if (written.success) {
+            this.acknowledgmentSequencer.complete(written.acknowledgments);
+        } else {
+            this.acknowledgmentSequencer.fail(written.acknowledgments);
+        }
+    }
+
+    private static class Written {
+        private final List<Acknowledgment> acknowledgments;
+        private final boolean success;
+
+        private Written(List<Acknowledgment> acknowledgments, boolean success) {
+            this.acknowledgments = acknowledgments;
+            this.success = success;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the requests of a bulk by target index and shard, computed on the client the way Elasticsearch
+ * routes a document: murmur3 of the routing (or the id) over {@code routing_num_shards}. Requests for the
+ * same document always share index and shard, the sort is stable so their order is kept.
+ * <p>
+ * Shard counts are read from the cluster state in the background once per {@code metadataRefreshMillis} and
+ * index. Requests without id and routing, or for indices whose layout is not known yet, that do not exist yet
+ * or use {@code routing_partition_size}, have no known shard. They are moved ahead of the requests with a known
+ * shard of the same index, keeping their order among themselves, rather than staying at their position.
+ */
+@Slf4j
+public class ShardGrouper {
+    private static final int UNKNOWN_SHARD = -1;
+    private static final String FILTER_PATH = "metadata.indices.*.routing_num_shards,"
+            + "metadata.indices.*.settings.index.number_of_shards,"
+            + "metadata.indices.*.settings.index.routing_partition_size";
+    private final RestClient restClient;
+    private final long metadataRefreshNanos;
+    private final Map<String, Shards> shards = new ConcurrentHashMap<>();
+
+    public ShardGrouper(RestClient restClient, ElasticsearchSinkProperties elasticsearchSinkProperties) {
+        this.restClient = restClient;
+        this.metadataRefreshNanos = TimeUnit.MILLISECONDS.toNanos(
+                elasticsearchSinkProperties.getShardGrouping().getMetadataRefreshMillis());
+    }
+
+    public BulkRequest group(BulkRequest bulkRequest) {
+        List<DocWriteRequest<?>> requests = bulkRequest.requests();
+        int size = requests.size();
+        if (size < 2) {
+            return bulkRequest;
+        }
+
+        String[] indices = new String[size];
+        int[] shardIds = new int[size];
+        Integer[] order = new Integer[size];
+        // one layout per index for the whole bulk, a refresh in between could give writes of a document different shards
+        Map<String, Shards> layouts = new HashMap<>();
+        boolean sorted = true;
+        for (int i = 0; i < size; i++) {
+            DocWriteRequest<?> request = requests.get(i);
+            indices[i] = request.index();
+            shardIds[i] = shardId(request, layouts.computeIfAbsent(request.index(), this::shards));
+            order[i] = i;
+            if (i > 0 && compare(indices[i - 1], shardIds[i - 1], indices[i], shardIds[i]) > 0) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            return bulkRequest;
+        }
+
+        Arrays.sort(order, Comparator.comparing((Integer i) -> indices[i]).thenComparingInt(i -> shardIds[i]));
+
+        BulkRequest grouped = new BulkRequest();
+        grouped.timeout(bulkRequest.timeout());
+        grouped.setRefreshPolicy(bulkRequest.getRefreshPolicy());
+        for (Integer i : order) {
+            grouped.add(requests.get(i));
+        }
+
+        return grouped;
+    }
+
+    private static int compare(String index1, int shardId1, String index2, int shardId2) {
+        int compared = index1.compareTo(index2);
+
+        return compared != 0 ? compared : Integer.compare(shardId1, shardId2);
+    }
+
+    private static int shardId(DocWriteRequest<?> request, Shards shards) {
+        String effectiveRouting = request.routing() != null ? request.routing() : request.id();
+        if (effectiveRouting == null || effectiveRouting.isEmpty()) {
+            return UNKNOWN_SHARD;
+        }
+        if (shards.routingNumShards <= 0) {
+            return UNKNOWN_SHARD;
+        }
+
+        return shardId(effectiveRouting, shards.routingNumShards, shards.numberOfShards);
+    }
+
+    /**
+     * Same as {@code OperationRouting} for an index without {@code routing_partition_size}.
+     */
+    static int shardId(String effectiveRouting, int routingNumShards, int numberOfShards) {
+        int routingFactor = routingNumShards / numberOfShards;
+
+        return Math.floorMod(Murmur3HashFunction.hash(effectiveRouting), routingNumShards) / routingFactor;
+    }
+
+    /**
+     * Cached shard layout of the index. A missing or stale one is loaded in the background, until it arrives
+     * the previous layout, or none, is used so the calling thread never waits for the cluster state.
+     */
+    private Shards shards(String index) {
+        long now = System.nanoTime();
+        Shards shards = this.shards.get(index);
+        if (shards == null || now - shards.loadedNanos >= this.metadataRefreshNanos) {
+            Shards loading = new Shards(shards == null ? 0 : shards.numberOfShards,
+                    shards == null ? 0 : shards.routingNumShards, now);
+            boolean claimed = shards == null
+                    ? this.shards.putIfAbsent(index, loading) == null
+                    : this.shards.replace(index, shards, loading);
+            if (claimed) {
+                this.load(index);
+            }
+            return loading;
+        }
+
+        return shards;
+    }
+
+    private void load(String index) {
+        Request request = new Request("GET", "/_cluster/state/metadata/" + index);
+        request.addParameter("filter_path", FILTER_PATH);
+
+        this.restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try (InputStream content = response.getEntity().getContent()) {
+                    shards.put(index, parse(content, System.nanoTime()));
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not read the shard layout of {}: {}", index, e.getMessage());
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // e.g. not created yet, tried again after the refresh interval
+                log.debug("No shard layout for {}: {}", index, e.getMessage());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Shards parse(InputStream content, long now) {
+        Map<String, Object> response = XContentHelper.convertToMap(XContentType.JSON.xContent(), content, false);
+        Map<String, Object> metadata = (Map<String, Object>) response.get("metadata");
+        Map<String, Object> indices = metadata == null ? null : (Map<String, Object>) metadata.get("indices");
+        // an alias over several indices has no single shard layout
+        if (indices == null || indices.size() != 1) {
+            return new Shards(0, 0, now);
+        }
+
+        Map<String, Object> indexMetadata = (Map<String, Object>) indices.values().iterator().next();
+        Map<String, Object> settings = (Map<String, Object>) ((Map<String, Object>) indexMetadata.get("settings")).get("index");
+        Object partitionSize = settings.get("routing_partition_size");
+        if (partitionSize != null && Integer.parseInt(partitionSize.toString()) > 1) {
+            return new Shards(0, 0, now);
+        }
+
+        return new Shards(Integer.parseInt(settings.get("number_of_shards").toString()),
+                ((Number) indexMetadata.get("routing_num_shards")).intValue(), now);
+    }
+
+    private static class Shards {
+        private final int numberOfShards;
+        private final int routingNumShards;
+        private final long loadedNanos;
+
+        private Shards(int numberOfShards, int routingNumShards, long loadedNanos) {
+            this.numberOfShards = numberOfShards;
+            this.routingNumShards = routingNumShards;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+}
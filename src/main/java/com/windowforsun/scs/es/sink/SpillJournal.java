@@ -0,0 +1,413 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps bulks that could not be sent because the cluster was unreachable in memory-mapped segment files
+ * and replays them once the cluster answers again, at most {@code replayMaxBulks} per interval.
+ * <p>
+ * Every bulk is one frame of {@code [int length][int crc32][serialized BulkRequest]}. The length is written
+ * last so a frame cut short by a crash reads as the end of the segment, and is negated once the frame was
+ * replayed so a restart continues where replay stopped. Fully replayed segments are deleted.
+ * Replayed documents may overwrite newer versions written in the meantime unless ids or versions prevent it.
+ * <p>
+ * A frame that can not be read, or whose bulk fails as a whole other than on I/O, 429 or 503, or still fails
+ * after {@code replayMaxAttempts}, is appended to {@code dead-letter.spill} in the same frame format and skipped,
+ * so it does not hold back everything spilled after it.
+ */
+@Slf4j
+public class SpillJournal implements DisposableBean {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES * 2;
+    private static final String DEAD_LETTER_FILE = "dead-letter" + SEGMENT_SUFFIX;
+    private final RestHighLevelClient restHighLevelClient;
+    private final ElasticsearchSinkMetrics metrics;
+    private final BulkRetryPolicy retryPolicy;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int replayMaxBulks;
+    private final int replayMaxAttempts;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final ScheduledExecutorService replayScheduler;
+    private long nextSegmentId;
+    // failed attempts of the frame at the head of the journal, only used by the replay thread
+    private Segment failedSegment;
+    private int failedPosition;
+    private int failedAttempts;
+
+    public SpillJournal(RestHighLevelClient restHighLevelClient,
+                        ElasticsearchSinkProperties elasticsearchSinkProperties,
+                        ElasticsearchSinkMetrics metrics) {
+        ElasticsearchSinkProperties.Spill spill = elasticsearchSinkProperties.getSpill();
+        this.restHighLevelClient = restHighLevelClient;
+        this.metrics = metrics;
+        this.retryPolicy = new BulkRetryPolicy(elasticsearchSinkProperties.getRetry());
+        this.directory = Paths.get(spill.getDirectory());
+        this.segmentBytes = spill.getSegmentBytes();
+        this.replayMaxBulks = spill.getReplayMaxBulks();
+        this.replayMaxAttempts = Math.max(1, spill.getReplayMaxAttempts());
+        this.open();
+        this.metrics.registerSpillJournal(this);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("es-sink-replay-");
+        threadFactory.setDaemon(true);
+        this.replayScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.replayScheduler.scheduleWithFixedDelay(this::replay,
+                spill.getReplayIntervalMillis(), spill.getReplayIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public long getPendingBytes() {
+        return this.pendingBytes.get();
+    }
+
+    public synchronized void append(BulkRequest request) {
+        byte[] payload = serialize(request);
+        int frameBytes = FRAME_HEADER_BYTES + payload.length;
+        Segment segment = this.segments.peekLast();
+        if (segment == null || segment.buffer.capacity() - segment.writePosition < frameBytes) {
+            segment = this.createSegment(frameBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(segment.writePosition + Integer.BYTES, (int) crc.getValue());
+        buffer.position(segment.writePosition + FRAME_HEADER_BYTES);
+        buffer.put(payload);
+        buffer.putInt(segment.writePosition, payload.length);
+        segment.writePosition += frameBytes;
+
+        this.pendingBytes.addAndGet(frameBytes);
+        this.metrics.recordSpill(request.numberOfActions());
+        log.debug("Spilled bulk of {} documents to {}", request.numberOfActions(), segment.path);
+    }
+
+    private void replay() {
+        try {
+            if (this.pendingBytes.get() == 0 || !this.restHighLevelClient.ping(RequestOptions.DEFAULT)) {
+                return;
+            }
+
+            for (int i = 0; i < this.replayMaxBulks; i++) {
+                Frame frame = this.peek();
+                if (frame == null || !this.replay(frame)) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Replay of spilled bulks paused: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the bulk of the frame, {@code true} once the frame is done with, {@code false} when it is to be
+     * tried again on the next interval.
+     */
+    private boolean replay(Frame frame) {
+        BulkRequest request;
+        try {
+            request = deserialize(frame.payload);
+        } catch (IOException | RuntimeException e) {
+            this.deadLetter(frame, "can not be read: " + e.getMessage());
+            return true;
+        }
+
+        BulkResponse response;
+        long start = System.nanoTime();
+        try {
+            response = this.restHighLevelClient.bulk(request, RequestOptions.DEFAULT);
+        } catch (IOException | RuntimeException e) {
+            if (!isTransient(e)) {
+                this.deadLetter(frame, e.getMessage());
+                return true;
+            }
+            if (frame.segment != this.failedSegment || frame.position != this.failedPosition) {
+                this.failedSegment = frame.segment;
+                this.failedPosition = frame.position;
+                this.failedAttempts = 0;
+            }
+            if (++this.failedAttempts >= this.replayMaxAttempts) {
+                this.deadLetter(frame, "failed " + this.failedAttempts + " times: " + e.getMessage());
+                return true;
+            }
+            log.warn("Replay of spilled bulks paused after attempt {} of {}: {}",
+                    this.failedAttempts, this.replayMaxAttempts, e.getMessage());
+            return false;
+        }
+        this.metrics.recordBulk(request, start);
+
+        if (response.hasFailures()) {
+            for (BulkItemResponse itemResponse : response) {
+                if (itemResponse.isFailed() && !this.retryPolicy.isRetryable(itemResponse)) {
+                    this.metrics.recordItemFailure(itemResponse.getFailure());
+                    log.error(String.format("Replayed index operation [id=%s, index=%s] failed: %s",
+                            itemResponse.getId(), itemResponse.getIndex(), itemResponse.getFailureMessage()));
+                }
+            }
+            // rejected items go to the end of the journal and are tried again later
+            BulkRequest retryRequest = this.retryPolicy.retryRequest(request, response);
+            if (retryRequest.numberOfActions() > 0) {
+                this.append(retryRequest);
+            }
+        }
+        this.consume(frame);
+        this.metrics.recordReplay(request.numberOfActions());
+
+        return true;
+    }
+
+    private static boolean isTransient(Exception e) {
+        if (e instanceof IOException) {
+            return true;
+        }
+        if (e instanceof ElasticsearchStatusException) {
+            RestStatus status = ((ElasticsearchStatusException) e).status();
+            return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.SERVICE_UNAVAILABLE;
+        }
+
+        return false;
+    }
+
+    /**
+     * Appends the frame to the dead letter file and moves past it.
+     */
+    private synchronized void deadLetter(Frame frame, String reason) {
+        Path path = this.directory.resolve(DEAD_LETTER_FILE);
+        CRC32 crc = new CRC32();
+        crc.update(frame.payload);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_BYTES + frame.payload.length)
+                .putInt(frame.payload.length)
+                .putInt((int) crc.getValue())
+                .put(frame.payload);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not write spilled bulk to " + path + ": " + e.getMessage(), e);
+        }
+
+        log.error("Moved spilled bulk at {} of {} to {}, {}", frame.position, frame.segment.path, path, reason);
+        this.metrics.recordDeadLetter();
+        this.consume(frame);
+    }
+
+    /**
+     * The oldest frame not replayed yet, {@code null} when there is none.
+     */
+    private synchronized Frame peek() {
+        while (!this.segments.isEmpty()) {
+            Segment segment = this.segments.peekFirst();
+            MappedByteBuffer buffer = segment.buffer;
+
+            while (segment.readPosition + FRAME_HEADER_BYTES <= buffer.capacity()) {
+                int position = segment.readPosition;
+                int length = buffer.getInt(position);
+                if (length == 0 || !fits(buffer, position, length)) {
+                    break;
+                }
+                segment.readPosition += FRAME_HEADER_BYTES + Math.abs(length);
+                if (length < 0) {
+                    continue;
+                }
+
+                byte[] payload = new byte[length];
+                buffer.position(position + FRAME_HEADER_BYTES);
+                buffer.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) {
+                    log.error("Skipped corrupt frame at {} of {}", position, segment.path);
+                    buffer.putInt(position, -length);
+                    this.pendingBytes.addAndGet(-(FRAME_HEADER_BYTES + length));
+                    continue;
+                }
+                // read again from here until the frame was replayed
+                segment.readPosition = position;
+
+                return new Frame(segment, position, payload);
+            }
+
+            if (segment == this.segments.peekLast()) {
+                return null;
+            }
+            this.segments.pollFirst();
+            this.delete(segment.path);
+        }
+
+        return null;
+    }
+
+    private synchronized void consume(Frame frame) {
+        int frameBytes = FRAME_HEADER_BYTES + frame.payload.length;
+        frame.segment.buffer.putInt(frame.position, -frame.payload.length);
+        frame.segment.readPosition = frame.position + frameBytes;
+        this.pendingBytes.addAndGet(-frameBytes);
+    }
+
+    private void open() {
+        List<Path> paths;
+        try {
+            Files.createDirectories(this.directory);
+            try (Stream<Path> files = Files.list(this.directory)) {
+                paths = files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                                && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not open spill directory " + this.directory + ": " + e.getMessage(), e);
+        }
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(path, this.map(path, 0));
+            MappedByteBuffer buffer = segment.buffer;
+            boolean replayed = true;
+
+            while (segment.writePosition + FRAME_HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(segment.writePosition);
+                if (length == 0 || !fits(buffer, segment.writePosition, length)) {
+                    break;
+                }
+                if (length > 0) {
+                    replayed = false;
+                    this.pendingBytes.addAndGet(FRAME_HEADER_BYTES + length);
+                } else if (replayed) {
+                    segment.readPosition += FRAME_HEADER_BYTES - length;
+                }
+                segment.writePosition += FRAME_HEADER_BYTES + Math.abs(length);
+            }
+
+            this.segments.addLast(segment);
+            this.nextSegmentId = id + 1;
+        }
+
+        if (this.pendingBytes.get() > 0) {
+            log.info("Found {} bytes of spilled bulks in {}, replaying once the cluster is available",
+                    this.pendingBytes.get(), this.directory);
+        }
+    }
+
+    private Segment createSegment(int minBytes) {
+        Segment last = this.segments.peekLast();
+        if (last != null) {
+            last.buffer.force();
+        }
+        Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, this.nextSegmentId++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, this.map(path, Math.max(this.segmentBytes, minBytes)));
+        this.segments.addLast(segment);
+
+        return segment;
+    }
+
+    /**
+     * Maps the whole file, creating it with {@code size} zero bytes first when {@code size} is positive.
+     */
+    private MappedByteBuffer map(Path path, int size) {
+        StandardOpenOption create = size > 0 ? StandardOpenOption.CREATE_NEW : StandardOpenOption.READ;
+        try (FileChannel channel = FileChannel.open(path, create, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size > 0 ? size : channel.size());
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not map spill segment " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Can not delete replayed spill segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    private static boolean fits(MappedByteBuffer buffer, int position, int length) {
+        return length != Integer.MIN_VALUE && (long) position + FRAME_HEADER_BYTES + Math.abs(length) <= buffer.capacity();
+    }
+
+    private static byte[] serialize(BulkRequest request) {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            request.writeTo(out);
+
+            return BytesReference.toBytes(out.bytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not serialize bulk request: " + e.getMessage(), e);
+        }
+    }
+
+    private static BulkRequest deserialize(byte[] payload) throws IOException {
+        try (StreamInput in = StreamInput.wrap(payload)) {
+            return new BulkRequest(in);
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        this.replayScheduler.shutdownNow();
+        this.replayScheduler.awaitTermination(10, TimeUnit.SECONDS);
+        synchronized (this) {
+            this.segments.forEach(segment -> segment.buffer.force());
+        }
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+
+        private Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Frame {
+        private final Segment segment;
+        private final int position;
+        private final byte[] payload;
+
+        private Frame(Segment segment, int position, byte[] payload) {
+            this.segment = segment;
+            this.position = position;
+            this.payload = payload;
+        }
+    }
+}
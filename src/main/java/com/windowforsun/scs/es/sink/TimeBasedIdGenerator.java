@@ -0,0 +1,100 @@
+package com.windowforsun.scs.es.sink;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flake-style document ids: 16 bytes of {@code [6 byte epoch millis][4 byte node][3 byte thread][3 byte sequence]}
+ * written as 22 url-safe characters, 6 bits each. Ids of one generator sort by creation time, which keeps new ids
+ * at the end of the terms dictionary instead of scattered over it like random UUIDs, so Lucene can rule out
+ * most segments when checking whether an id exists.
+ * <p>
+ * The node is random per generator, each thread gets its own slot and sequence, so no locking is needed.
+ * More than 2^24 ids per thread and millisecond wait for the next millisecond.
+ */
+public class TimeBasedIdGenerator {
+    // url-safe base64 characters in ascending ASCII order, so ids sort like their bytes
+    private static final char[] ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final int ID_BYTES = 16;
+    private static final int ID_CHARS = 22;
+    private static final int MAX_SEQUENCE = (1 << 24) - 1;
+    private final int node;
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(() -> new State(this.nextThread.getAndIncrement()));
+
+    public TimeBasedIdGenerator() {
+        this(new SecureRandom().nextInt());
+    }
+
+    TimeBasedIdGenerator(int node) {
+        this.node = node;
+    }
+
+    public String next() {
+        State state = this.state.get();
+        long millis = System.currentTimeMillis();
+
+        if (millis > state.lastMillis) {
+            state.lastMillis = millis;
+            state.sequence = 0;
+        } else if (state.sequence < MAX_SEQUENCE) {
+            // same millisecond, or the clock went back: keep counting on the last one
+            state.sequence++;
+        } else {
+            while ((millis = System.currentTimeMillis()) <= state.lastMillis) {
+                Thread.onSpinWait();
+            }
+            state.lastMillis = millis;
+            state.sequence = 0;
+        }
+
+        byte[] bytes = state.bytes;
+        long time = state.lastMillis;
+        for (int i = 5; i >= 0; i--) {
+            bytes[i] = (byte) time;
+            time >>>= 8;
+        }
+        bytes[6] = (byte) (this.node >>> 24);
+        bytes[7] = (byte) (this.node >>> 16);
+        bytes[8] = (byte) (this.node >>> 8);
+        bytes[9] = (byte) this.node;
+        bytes[10] = (byte) (state.thread >>> 16);
+        bytes[11] = (byte) (state.thread >>> 8);
+        bytes[12] = (byte) state.thread;
+        bytes[13] = (byte) (state.sequence >>> 16);
+        bytes[14] = (byte) (state.sequence >>> 8);
+        bytes[15] = (byte) state.sequence;
+
+        return encode(bytes, state.chars);
+    }
+
+    private static String encode(byte[] bytes, char[] chars) {
+        int c = 0;
+        int i = 0;
+        for (; i + 3 <= ID_BYTES; i += 3) {
+            int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[c++] = ALPHABET[bits >>> 18 & 0x3f];
+            chars[c++] = ALPHABET[bits >>> 12 & 0x3f];
+            chars[c++] = ALPHABET[bits >>> 6 & 0x3f];
+            chars[c++] = ALPHABET[bits & 0x3f];
+        }
+        // one byte left
+        int bits = (bytes[i] & 0xff) << 16;
+        chars[c++] = ALPHABET[bits >>> 18 & 0x3f];
+        chars[c] = ALPHABET[bits >>> 12 & 0x3f];
+
+        return new String(chars, 0, ID_CHARS);
+    }
+
+    private static class State {
+        private final int thread;
+        private final byte[] bytes = new byte[ID_BYTES];
+        private final char[] chars = new char[ID_CHARS];
+        private long lastMillis = -1L;
+        private int sequence;
+
+        private State(int thread) {
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class AcknowledgmentSequencerTest {
+    private final List<String> acknowledged = new CopyOnWriteArrayList<>();
+    private final List<String> restarted = new CopyOnWriteArrayList<>();
+    private final AcknowledgmentSequencer sequencer = new AcknowledgmentSequencer(this.restarted::add);
+
+    @AfterEach
+    public void destroy() {
+        this.sequencer.destroy();
+    }
+
+    private Message<?> record(String name, int partition) {
+        Acknowledgment acknowledgment = () -> this.acknowledged.add(name);
+
+        return MessageBuilder.withPayload(name)
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, acknowledgment)
+                .setHeader(KafkaHeaders.RECEIVED_TOPIC, "output")
+                .setHeader(KafkaHeaders.RECEIVED_PARTITION_ID, partition)
+                .build();
+    }
+
+    private static Message<?> bulk(Message<?>... records) {
+        return MessageBuilder.withPayload("bulk")
+                .setHeader(AcknowledgmentSequencer.ACKNOWLEDGMENTS, AcknowledgmentSequencer.acknowledgments(List.of(records)))
+                .build();
+    }
+
+    @Test
+    public void acknowledges_in_dispatch_order() {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        CompletableFuture<Void> second = new CompletableFuture<>();
+
+        this.sequencer.dispatch(this.record("first", 0), () -> first);
+        this.sequencer.dispatch(this.record("second", 0), () -> second);
+
+        second.complete(null);
+        assertThat(this.acknowledged, empty());
+        assertThat(this.sequencer.getPendingAcknowledgments(), is(2));
+
+        first.complete(null);
+        assertThat(this.acknowledged, contains("first", "second"));
+        assertThat(this.sequencer.getPendingAcknowledgments(), is(0));
+    }
+
+    @Test
+    public void groups_released_in_reverse_order_are_acknowledged_in_arrival_order() {
+        // correlated into two groups on arrival, group b is released first
+        Message<?> a1 = this.sequencer.track(this.record("a1", 0));
+        Message<?> b2 = this.sequencer.track(this.record("b2", 0));
+        Message<?> a3 = this.sequencer.track(this.record("a3", 0));
+        Message<?> b4 = this.sequencer.track(this.record("b4", 0));
+        CompletableFuture<Void> groupA = new CompletableFuture<>();
+
+        this.sequencer.dispatch(bulk(b2, b4), () -> CompletableFuture.completedFuture(null));
+        this.sequencer.dispatch(bulk(a1, a3), () -> groupA);
+
+        // b4 must not be committed while a1 is still in flight
+        assertThat(this.acknowledged, empty());
+
+        groupA.complete(null);
+        assertThat(this.acknowledged, contains("a1", "b2", "a3", "b4"));
+        assertThat(this.sequencer.getPendingAcknowledgments(), is(0));
+    }
+
+    @Test
+    public void partitions_are_acknowledged_independently() {
+        Message<?> first = this.sequencer.track(this.record("partition-0", 0));
+        Message<?> second = this.sequencer.track(this.record("partition-1", 1));
+
+        this.sequencer.dispatch(bulk(second), () -> CompletableFuture.completedFuture(null));
+
+        assertThat(this.acknowledged, contains("partition-1"));
+        assertThat(this.sequencer.getPendingAcknowledgments(), is(1));
+        this.sequencer.dispatch(bulk(first), () -> CompletableFuture.completedFuture(null));
+        assertThat(this.acknowledged, contains("partition-1", "partition-0"));
+    }
+
+    @Test
+    public void failure_holds_back_later_acknowledgments_and_restarts_the_binding() {
+        this.sequencer.onPartitionsAssigned("input", null, Collections.emptyList(), true);
+        CompletableFuture<Void> first = new CompletableFuture<>();
+
+        this.sequencer.dispatch(this.record("first", 0), () -> first);
+        this.sequencer.dispatch(this.record("second", 0), () -> CompletableFuture.completedFuture(null));
+        first.completeExceptionally(new IllegalStateException("bulk failed"));
+        this.sequencer.dispatch(this.record("third", 0), () -> CompletableFuture.completedFuture(null));
+
+        assertThat(this.acknowledged, empty());
+        assertThat(this.sequencer.isBlocked(), is(true));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> this.restarted.equals(List.of("input")));
+    }
+
+    @Test
+    public void thrown_failure_holds_back_later_acknowledgments() {
+        CompletableFuture<Void> first = new CompletableFuture<>();
+
+        this.sequencer.dispatch(this.record("first", 0), () -> first);
+        try {
+            this.sequencer.dispatch(this.record("second", 0), () -> {
+                throw new IllegalStateException("bulk failed");
+            });
+        } catch (IllegalStateException ignore) {
+        }
+        this.sequencer.dispatch(this.record("third", 0), () -> CompletableFuture.completedFuture(null));
+        first.complete(null);
+
+        // first was written before the failure, nothing after it may be committed
+        assertThat(this.acknowledged, empty());
+        assertThat(this.sequencer.isBlocked(), is(true));
+    }
+
+    @Test
+    public void rebalance_resets_and_ignores_earlier_results() {
+        CompletableFuture<Void> stale = new CompletableFuture<>();
+        Message<?> pending = this.sequencer.track(this.record("pending", 0));
+        this.sequencer.dispatch(this.record("stale", 0), () -> stale);
+        this.sequencer.dispatch(this.record("failed", 0), () -> CompletableFuture.failedFuture(new IllegalStateException("bulk failed")));
+        assertThat(this.sequencer.isBlocked(), is(true));
+
+        // the restarted binding gets its partitions assigned again
+        this.sequencer.onPartitionsAssigned("input", null, Collections.emptyList(), false);
+        assertThat(this.sequencer.isBlocked(), is(false));
+        CompletableFuture<Void> redelivered = new CompletableFuture<>();
+        this.sequencer.dispatch(this.record("redelivered", 0), () -> redelivered);
+        stale.completeExceptionally(new IllegalStateException("late failure"));
+        this.sequencer.dispatch(bulk(pending), () -> CompletableFuture.completedFuture(null));
+        redelivered.complete(null);
+
+        assertThat(this.acknowledged, contains("redelivered"));
+        assertThat(this.sequencer.isBlocked(), is(false));
+    }
+}
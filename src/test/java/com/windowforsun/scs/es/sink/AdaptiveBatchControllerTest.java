@@ -0,0 +1,84 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdaptiveBatchControllerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2_000);
+
+    private static ElasticsearchSinkProperties properties(boolean enabled) {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setBatchSize(1000);
+        properties.setGroupTimeout(1000L);
+        properties.getAdaptive().setEnabled(enabled);
+        properties.getAdaptive().setMinBatchSize(100);
+        properties.getAdaptive().setMaxBatchSize(2000);
+        properties.getAdaptive().setBatchSizeStep(100);
+        properties.getAdaptive().setMinGroupTimeout(100L);
+        properties.getAdaptive().setMaxGroupTimeout(4000L);
+        properties.getAdaptive().setGroupTimeoutStep(100L);
+        properties.getAdaptive().setTargetLatencyMillis(1000L);
+
+        return properties;
+    }
+
+    @Test
+    public void disabled_keeps_configured_values() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(properties(false));
+
+        controller.onBulk(SLOW, 10);
+        controller.onFailure();
+
+        assertThat(controller.getBatchSize(), is(1000));
+        assertThat(controller.getGroupTimeout(), is(1000L));
+    }
+
+    @Test
+    public void grows_additively_up_to_max() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(properties(true));
+
+        controller.onBulk(FAST, 0);
+        assertThat(controller.getBatchSize(), is(1100));
+        assertThat(controller.getGroupTimeout(), is(900L));
+
+        for (int i = 0; i < 100; i++) {
+            controller.onBulk(FAST, 0);
+        }
+        assertThat(controller.getBatchSize(), is(2000));
+        assertThat(controller.getGroupTimeout(), is(100L));
+    }
+
+    @Test
+    public void backs_off_multiplicatively_on_rejection_and_latency() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(properties(true));
+
+        controller.onBulk(FAST, 3);
+        assertThat(controller.getBatchSize(), is(500));
+        assertThat(controller.getGroupTimeout(), is(2000L));
+
+        controller.onBulk(SLOW, 0);
+        assertThat(controller.getBatchSize(), is(250));
+        assertThat(controller.getGroupTimeout(), is(4000L));
+
+        controller.onFailure();
+        controller.onFailure();
+        assertThat(controller.getBatchSize(), is(100));
+        assertThat(controller.getGroupTimeout(), is(4000L));
+    }
+
+    @Test
+    public void backoff_factor_outside_zero_and_one_is_rejected() {
+        for (double backoffFactor : new double[]{0.0, 1.0, 1.5, -0.5, Double.NaN}) {
+            ElasticsearchSinkProperties properties = properties(true);
+            properties.getAdaptive().setBackoffFactor(backoffFactor);
+
+            assertThrows(IllegalArgumentException.class, () -> new AdaptiveBatchController(properties));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(SpringExtension.class)
+@Import(TestChannelBinderConfiguration.class)
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-mode=true",
+                "elasticsearch.sink.batch-size=4"
+        }
+)
+@ActiveProfiles("test")
+public class BatchModeIndexTest {
+    private static String INDEX = "test";
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    @Test
+    public void polled_batch_message_ok() throws Exception {
+        // the shape a batch mode Kafka consumer hands to the function: a list payload with list headers
+        int totalCount = 11;
+        List<String> payloads = IntStream.range(0, totalCount)
+                .mapToObj(i -> String.format("{\"message\" : %d}", i))
+                .collect(Collectors.toList());
+        List<String> ids = IntStream.range(0, totalCount)
+                .mapToObj(i -> "id-" + i)
+                .collect(Collectors.toList());
+
+        this.inputDestination.send(MessageBuilder.withPayload(payloads)
+                .setHeader("INDEX_ID", ids)
+                .build());
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .ignoreExceptions()
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is((long) totalCount));
+
+
+        List<String> documentIds = Util.getAllDocumentByIndex(this.restHighLevelClient, INDEX)
+                .stream()
+                .map(SearchHit::getId)
+                .collect(Collectors.toList());
+
+        assertThat(documentIds, everyItem(in(ids)));
+    }
+}
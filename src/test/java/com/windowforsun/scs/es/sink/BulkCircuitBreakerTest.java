@@ -0,0 +1,192 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.awaitility.Awaitility;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
+import org.springframework.integration.store.SimpleMessageStore;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkCircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2_000);
+    private static final Exception TIMEOUT = new SocketTimeoutException("30,000 milliseconds timeout on connection");
+    private final AtomicBoolean healthy = new AtomicBoolean();
+    private final List<BindingsLifecycleController.State> bindingStates = new CopyOnWriteArrayList<>();
+    private BulkCircuitBreaker circuitBreaker;
+
+    private BulkCircuitBreaker circuitBreaker() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.getCircuitBreaker().setEnabled(true);
+        properties.getCircuitBreaker().setWindowSize(10);
+        properties.getCircuitBreaker().setMinimumCalls(4);
+        properties.getCircuitBreaker().setFailureRateThreshold(50);
+        properties.getCircuitBreaker().setSlowCallDurationMillis(1_000L);
+        properties.getCircuitBreaker().setSlowCallRateThreshold(75);
+        properties.getCircuitBreaker().setOpenDurationMillis(200L);
+        this.circuitBreaker = new BulkCircuitBreaker(properties, this.healthy::get, this.bindingStates::add,
+                new ElasticsearchSinkMetrics(new SimpleMeterRegistry(), new SimpleMessageStore()));
+
+        return this.circuitBreaker;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (this.circuitBreaker != null) {
+            this.circuitBreaker.destroy();
+        }
+    }
+
+    @Test
+    public void stays_closed_below_minimum_calls() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+
+        circuitBreaker.onFailure(TIMEOUT);
+        circuitBreaker.onFailure(TIMEOUT);
+        circuitBreaker.onFailure(TIMEOUT);
+
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(100.0));
+        assertThat(this.bindingStates, is(empty()));
+    }
+
+    @Test
+    public void stays_closed_below_thresholds() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.onCall(i % 2 == 0 ? SLOW : FAST, false);
+        }
+        circuitBreaker.onFailure(TIMEOUT);
+        circuitBreaker.onFailure(TIMEOUT);
+        circuitBreaker.onFailure(TIMEOUT);
+
+        // the window holds the last 10 calls
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(30.0));
+        assertThat(circuitBreaker.getSlowCallRate(), is(30.0));
+        assertThat(this.bindingStates, is(empty()));
+    }
+
+    @Test
+    public void opens_on_rejections_and_closes_after_successful_trial() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+        CircuitBreakerHealthIndicator healthIndicator = new CircuitBreakerHealthIndicator(circuitBreaker);
+        assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+
+        circuitBreaker.onCall(FAST, false);
+        circuitBreaker.onCall(FAST, true);
+        circuitBreaker.onCall(FAST, false);
+        circuitBreaker.onFailure(TIMEOUT);
+
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+        // a paused binding must not fail the aggregate health
+        assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+        assertThat(healthIndicator.health().getDetails().get("state"), is(BulkCircuitBreaker.State.OPEN));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> this.bindingStates.equals(List.of(BindingsLifecycleController.State.PAUSED)));
+
+        // the cluster is still struggling, the probe keeps it open
+        Awaitility.await().pollDelay(500, TimeUnit.MILLISECONDS).atMost(5, TimeUnit.SECONDS)
+                .until(() -> circuitBreaker.getState() == BulkCircuitBreaker.State.OPEN);
+        assertThat(this.bindingStates, contains(BindingsLifecycleController.State.PAUSED));
+
+        this.healthy.set(true);
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> circuitBreaker.getState() == BulkCircuitBreaker.State.HALF_OPEN);
+        assertThat(this.bindingStates, contains(BindingsLifecycleController.State.PAUSED, BindingsLifecycleController.State.RESUMED));
+
+        // the first request after resuming decides
+        circuitBreaker.onCall(FAST, false);
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(0.0));
+        assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+    }
+
+    @Test
+    public void failed_trial_opens_again_although_the_health_is_green() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+        this.healthy.set(true);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onCall(FAST, true);
+        }
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> circuitBreaker.getState() == BulkCircuitBreaker.State.HALF_OPEN);
+
+        // a client error says nothing, rejections while the health is green do
+        circuitBreaker.onFailure(new ElasticsearchStatusException("bad request", RestStatus.BAD_REQUEST));
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.HALF_OPEN));
+        circuitBreaker.onCall(FAST, true);
+
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(() -> this.bindingStates.size() >= 3);
+        assertThat(this.bindingStates.subList(0, 3), contains(BindingsLifecycleController.State.PAUSED,
+                BindingsLifecycleController.State.RESUMED, BindingsLifecycleController.State.PAUSED));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(() -> circuitBreaker.getState() == BulkCircuitBreaker.State.HALF_OPEN);
+        circuitBreaker.onCall(SLOW, false);
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void opens_on_slow_calls() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+
+        circuitBreaker.onCall(SLOW, false);
+        circuitBreaker.onCall(SLOW, false);
+        circuitBreaker.onCall(FAST, false);
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        circuitBreaker.onCall(SLOW, false);
+
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void calls_answered_while_open_are_not_counted() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(TIMEOUT);
+        }
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+
+        circuitBreaker.onCall(FAST, false);
+        circuitBreaker.onCall(FAST, false);
+
+        assertThat(circuitBreaker.getFailureRate(), is(100.0));
+    }
+
+    @Test
+    public void only_io_errors_and_429_503_count_as_failures() {
+        BulkCircuitBreaker circuitBreaker = this.circuitBreaker();
+
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(new ElasticsearchStatusException("bad request", RestStatus.BAD_REQUEST));
+            circuitBreaker.onFailure(new ElasticsearchStatusException("too large", RestStatus.REQUEST_ENTITY_TOO_LARGE));
+            circuitBreaker.onFailure(new IllegalStateException("unexpected response"));
+        }
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(0.0));
+
+        circuitBreaker.onFailure(TIMEOUT);
+        circuitBreaker.onFailure(new ConnectException("Connection refused"));
+        circuitBreaker.onFailure(new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS));
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.CLOSED));
+        circuitBreaker.onFailure(new ElasticsearchStatusException("unavailable", RestStatus.SERVICE_UNAVAILABLE));
+
+        assertThat(circuitBreaker.getState(), is(BulkCircuitBreaker.State.OPEN));
+    }
+}
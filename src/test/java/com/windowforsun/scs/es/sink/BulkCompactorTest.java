@@ -0,0 +1,78 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkCompactorTest {
+
+    private static IndexRequest request(String index, String id, int version) {
+        return new IndexRequest(index).id(id).source(String.format("{\"version\" : %d}", version), XContentType.JSON);
+    }
+
+    private static List<String> sources(List<IndexRequest> indexRequests) {
+        return indexRequests.stream()
+                .map(indexRequest -> indexRequest.source().utf8ToString())
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void last_write_per_id_wins_in_order() {
+        List<IndexRequest> compacted = BulkCompactor.lastWritePerDocument(Arrays.asList(
+                request("test", "a", 1),
+                request("test", "b", 2),
+                request("test", "a", 3),
+                request("other", "a", 4),
+                request("test", "b", 5)
+        ));
+
+        assertThat(sources(compacted), contains("{\"version\" : 3}", "{\"version\" : 4}", "{\"version\" : 5}"));
+    }
+
+    @Test
+    public void requests_without_id_are_kept() {
+        List<IndexRequest> compacted = BulkCompactor.lastWritePerDocument(Arrays.asList(
+                request("test", null, 1),
+                request("test", "", 2),
+                request("test", null, 3)
+        ));
+
+        assertThat(compacted, hasSize(3));
+    }
+
+    @Test
+    public void different_routing_is_a_different_document() {
+        List<IndexRequest> compacted = BulkCompactor.lastWritePerDocument(Arrays.asList(
+                request("test", "a", 1).routing("r1"),
+                request("test", "a", 2).routing("r2")
+        ));
+
+        assertThat(compacted, hasSize(2));
+    }
+
+    @Test
+    public void updates_are_only_replaced_by_a_later_index_or_delete() {
+        List<DocWriteRequest<?>> compacted = BulkCompactor.lastWritePerDocument(Arrays.<DocWriteRequest<?>>asList(
+                request("test", "a", 1),
+                new UpdateRequest("test", "a").doc("{\"field\" : 1}", XContentType.JSON),
+                new UpdateRequest("test", "b").doc("{\"field\" : 2}", XContentType.JSON),
+                new DeleteRequest("test", "b"),
+                request("test", "c", 3).opType(DocWriteRequest.OpType.CREATE),
+                request("test", "c", 4).opType(DocWriteRequest.OpType.CREATE)
+        ));
+
+        assertThat(compacted, hasSize(5));
+        assertThat(compacted.get(1).opType(), is(DocWriteRequest.OpType.UPDATE));
+        assertThat(compacted.get(2).opType(), is(DocWriteRequest.OpType.DELETE));
+    }
+}
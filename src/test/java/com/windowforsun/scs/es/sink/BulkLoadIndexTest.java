@@ -0,0 +1,94 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(SpringExtension.class)
+@Import(TestChannelBinderConfiguration.class)
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-size=10",
+                "elasticsearch.sink.group-timeout=2",
+                "elasticsearch.sink.bulk-load.enabled=true",
+                "elasticsearch.sink.bulk-load.threshold-documents-per-second=1",
+                "elasticsearch.sink.bulk-load.check-interval-millis=200",
+                "elasticsearch.sink.bulk-load.quiet-period-millis=2000"
+        }
+)
+@ActiveProfiles("test")
+public class BulkLoadIndexTest {
+    private static String INDEX = "test";
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @Autowired
+    private BulkLoadManager bulkLoadManager;
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    private String setting(String name) throws IOException {
+        return this.restHighLevelClient.indices()
+                .getSettings(new GetSettingsRequest().indices(INDEX), RequestOptions.DEFAULT)
+                .getSetting(INDEX, name);
+    }
+
+    @Test
+    public void settings_applied_while_loading_and_restored_when_quiet() throws Exception {
+        this.restHighLevelClient.indices().create(new CreateIndexRequest(INDEX)
+                .settings(Settings.builder().put("index.number_of_replicas", 1)), RequestOptions.DEFAULT);
+        int totalCount = 50;
+
+        for(int i = 0; i < totalCount; i++) {
+            this.inputDestination.send(MessageBuilder.withPayload(String.format("{\"message\" : %d}", i)).build());
+        }
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> this.setting("index.refresh_interval"), is("-1"));
+        assertThat(this.bulkLoadManager.isActive(), is(true));
+        assertThat(this.setting("index.number_of_replicas"), is("0"));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> this.setting("index.number_of_replicas"), is("1"));
+        assertThat(this.bulkLoadManager.isActive(), is(false));
+        assertThat(this.setting("index.refresh_interval"), is(nullValue()));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is((long) totalCount));
+    }
+}
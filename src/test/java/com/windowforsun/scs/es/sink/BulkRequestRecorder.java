@@ -0,0 +1,58 @@
+package com.windowforsun.scs.es.sink;
+
+import lombok.Value;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.elasticsearch.client.RestClientBuilder;
+import org.springframework.boot.autoconfigure.elasticsearch.RestClientBuilderCustomizer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the content type and encoding of every {@code _bulk} request the sink client sends.
+ * The low-level transport sends {@code application/x-ndjson}, the high-level client {@code application/json}.
+ */
+public class BulkRequestRecorder implements RestClientBuilderCustomizer {
+    private final List<Bulk> bulks = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void customize(RestClientBuilder builder) {
+    }
+
+    @Override
+    public void customize(HttpAsyncClientBuilder builder) {
+        builder.addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+            if (!request.getRequestLine().getUri().contains("_bulk") || !(request instanceof HttpEntityEnclosingRequest)) {
+                return;
+            }
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            this.bulks.add(new Bulk(value(entity.getContentType()), value(entity.getContentEncoding())));
+        });
+    }
+
+    public List<Bulk> getBulks() {
+        return this.bulks;
+    }
+
+    private static String value(Header header) {
+        return header == null ? null : header.getValue();
+    }
+
+    @Value
+    public static class Bulk {
+        String contentType;
+        String contentEncoding;
+
+        public boolean isLowLevel() {
+            return this.contentType != null && this.contentType.startsWith("application/x-ndjson");
+        }
+
+        public boolean isGzip() {
+            return "gzip".equals(this.contentEncoding);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkRetryPolicyTest {
+
+    private static BulkRetryPolicy policy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+        ElasticsearchSinkProperties.Retry retry = new ElasticsearchSinkProperties.Retry();
+        retry.setMaxRetries(maxRetries);
+        retry.setInitialBackoffMillis(initialBackoffMillis);
+        retry.setMaxBackoffMillis(maxBackoffMillis);
+
+        return new BulkRetryPolicy(retry);
+    }
+
+    private static BulkItemResponse success(int itemId) {
+        return BulkItemResponse.success(itemId, DocWriteRequest.OpType.INDEX,
+                new IndexResponse(new ShardId("test", "_na_", 0), "_doc", String.valueOf(itemId), 0, 1, 1, true));
+    }
+
+    private static BulkItemResponse failure(int itemId, RestStatus status) {
+        return BulkItemResponse.failure(itemId, DocWriteRequest.OpType.INDEX,
+                new BulkItemResponse.Failure("test", "_doc", String.valueOf(itemId),
+                        new ElasticsearchException("failed with " + status), status));
+    }
+
+    @Test
+    public void only_rejected_items_are_retried_in_their_original_order() {
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < 5; i++) {
+            request.add(new IndexRequest("test").id(String.valueOf(i)).source("{\"message\":" + i + "}", XContentType.JSON));
+        }
+        BulkResponse response = new BulkResponse(new BulkItemResponse[]{
+                success(0),
+                failure(1, RestStatus.TOO_MANY_REQUESTS),
+                failure(2, RestStatus.BAD_REQUEST),
+                success(3),
+                failure(4, RestStatus.SERVICE_UNAVAILABLE)
+        }, 1L);
+
+        BulkRequest retryRequest = policy(3, 100L, 1_000L).retryRequest(request, response);
+
+        assertThat(retryRequest.numberOfActions(), is(2));
+        assertThat(retryRequest.requests().get(0), is(sameInstance(request.requests().get(1))));
+        assertThat(retryRequest.requests().get(1), is(sameInstance(request.requests().get(4))));
+        assertThat(retryRequest.timeout(), is(request.timeout()));
+    }
+
+    @Test
+    public void item_id_maps_back_to_request_position() {
+        BulkRequest request = new BulkRequest();
+        for (int i = 0; i < 3; i++) {
+            request.add(new IndexRequest("test").id(String.valueOf(i)).source("{}", XContentType.JSON));
+        }
+        // a response listing only the failed item, as the low-level transport builds it
+        BulkResponse response = new BulkResponse(new BulkItemResponse[]{failure(2, RestStatus.TOO_MANY_REQUESTS)}, 1L);
+
+        BulkRequest retryRequest = policy(3, 100L, 1_000L).retryRequest(request, response);
+
+        assertThat(retryRequest.numberOfActions(), is(1));
+        assertThat(retryRequest.requests().get(0).id(), is("2"));
+    }
+
+    @Test
+    public void only_429_and_503_are_retryable() {
+        BulkRetryPolicy policy = policy(3, 100L, 1_000L);
+
+        assertThat(policy.isRetryable(success(0)), is(false));
+        assertThat(policy.isRetryable(failure(0, RestStatus.TOO_MANY_REQUESTS)), is(true));
+        assertThat(policy.isRetryable(failure(0, RestStatus.SERVICE_UNAVAILABLE)), is(true));
+        assertThat(policy.isRetryable(failure(0, RestStatus.BAD_REQUEST)), is(false));
+        assertThat(policy.isRetryable(failure(0, RestStatus.CONFLICT)), is(false));
+        assertThat(policy.isRetryable(failure(0, RestStatus.INTERNAL_SERVER_ERROR)), is(false));
+    }
+
+    @Test
+    public void backoff_doubles_with_equal_jitter_up_to_max() {
+        BulkRetryPolicy policy = policy(10, 100L, 1_000L);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(policy.backoffMillis(0), allOf(greaterThanOrEqualTo(50L), lessThanOrEqualTo(100L)));
+            assertThat(policy.backoffMillis(1), allOf(greaterThanOrEqualTo(100L), lessThanOrEqualTo(200L)));
+            assertThat(policy.backoffMillis(3), allOf(greaterThanOrEqualTo(400L), lessThanOrEqualTo(800L)));
+            assertThat(policy.backoffMillis(4), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1_000L)));
+            // no overflow for large attempts
+            assertThat(policy.backoffMillis(62), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1_000L)));
+        }
+    }
+
+    @Test
+    public void retries_stop_after_max_retries() {
+        BulkRetryPolicy policy = policy(2, 100L, 1_000L);
+
+        assertThat(policy.canRetry(0), is(true));
+        assertThat(policy.canRetry(1), is(true));
+        assertThat(policy.canRetry(2), is(false));
+        assertThat(policy(0, 100L, 1_000L).canRetry(0), is(false));
+    }
+}
@@ -0,0 +1,57 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.store.SimpleMessageGroup;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.function.BiFunction;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkSizeReleaseStrategyTest {
+
+    private static void add(SimpleMessageGroup group, BulkSizeReleaseStrategy releaseStrategy, String payload) {
+        Message<String> message = MessageBuilder.withPayload(payload).build();
+        BiFunction<Message<?>, String, String> conditionSupplier = releaseStrategy.getGroupConditionSupplier();
+        group.add(message);
+        group.setCondition(conditionSupplier.apply(message, group.getCondition()));
+    }
+
+    @Test
+    public void released_by_count() {
+        BulkSizeReleaseStrategy releaseStrategy = new BulkSizeReleaseStrategy(2, -1L);
+        SimpleMessageGroup group = new SimpleMessageGroup("key");
+
+        add(group, releaseStrategy, "{\"a\":1}");
+        assertThat(releaseStrategy.canRelease(group), is(false));
+        assertThat(group.getCondition(), is(nullValue()));
+        add(group, releaseStrategy, "{\"a\":2}");
+        assertThat(releaseStrategy.canRelease(group), is(true));
+    }
+
+    @Test
+    public void released_by_running_size() {
+        BulkSizeReleaseStrategy releaseStrategy = new BulkSizeReleaseStrategy(1000, 20L);
+        SimpleMessageGroup group = new SimpleMessageGroup("key");
+
+        add(group, releaseStrategy, "0123456789");
+        assertThat(releaseStrategy.canRelease(group), is(false));
+        assertThat(group.getCondition(), is("10"));
+        add(group, releaseStrategy, "0123456789");
+        assertThat(group.getCondition(), is("20"));
+        assertThat(releaseStrategy.canRelease(group), is(true));
+    }
+
+    @Test
+    public void group_without_condition_is_measured_as_a_whole() {
+        BulkSizeReleaseStrategy releaseStrategy = new BulkSizeReleaseStrategy(1000, 20L);
+        SimpleMessageGroup group = new SimpleMessageGroup("key");
+
+        group.add(MessageBuilder.withPayload("0123456789").build());
+        assertThat(releaseStrategy.canRelease(group), is(false));
+        group.add(MessageBuilder.withPayload("0123456789").build());
+        assertThat(releaseStrategy.canRelease(group), is(true));
+    }
+}
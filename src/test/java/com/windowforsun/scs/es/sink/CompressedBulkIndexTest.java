@@ -0,0 +1,85 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(SpringExtension.class)
+@Import({TestChannelBinderConfiguration.class, BulkRequestRecorder.class})
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-size=3",
+                "elasticsearch.sink.group-timeout=1000",
+                "elasticsearch.sink.compression.enabled=true",
+                // a bulk of 3 documents is estimated at about 195 bytes, a bulk of 1 at about 65
+                "elasticsearch.sink.compression.min-bytes=150"
+        }
+)
+@ActiveProfiles("test")
+public class CompressedBulkIndexTest {
+    private static String INDEX = "test";
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @Autowired
+    private BulkRequestRecorder bulkRequestRecorder;
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    @Test
+    public void gzip_bulk_ok() throws Exception {
+        int totalCount = 7;
+
+        for(int i = 0; i < totalCount; i++) {
+            this.inputDestination.send(MessageBuilder.withPayload(String.format("{\"message\" : %d}", i)).build());
+        }
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is((long) totalCount));
+
+        List<Map<String, Object>> documentList = Util.getAllDocumentByIndex(this.restHighLevelClient, INDEX)
+                .stream()
+                .map(SearchHit::getSourceAsMap)
+                .collect(Collectors.toList());
+
+        assertThat(documentList, everyItem(hasKey("message")));
+
+        // 3, 3 and the last document released by the group timeout, only the full bulks reach min-bytes
+        List<BulkRequestRecorder.Bulk> bulks = this.bulkRequestRecorder.getBulks();
+        assertThat(bulks, hasSize(3));
+        assertThat(bulks, everyItem(hasProperty("lowLevel", is(true))));
+        assertThat(bulks.stream().map(BulkRequestRecorder.Bulk::isGzip).collect(Collectors.toList()), contains(true, true, false));
+    }
+}
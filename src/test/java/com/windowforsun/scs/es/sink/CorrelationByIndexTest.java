@@ -0,0 +1,91 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(SpringExtension.class)
+@Import(TestChannelBinderConfiguration.class)
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-size=3",
+                "elasticsearch.sink.group-timeout=3000",
+                "elasticsearch.sink.correlation=index"
+        }
+)
+@ActiveProfiles("test")
+public class CorrelationByIndexTest {
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @SpyBean
+    private ElasticsearchWriter elasticsearchWriter;
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    @Test
+    public void messages_grouped_per_index() throws Exception {
+        int totalCount = 11;
+
+        for(int i = 0; i < totalCount; i++) {
+            this.inputDestination.send(MessageBuilder.withPayload(String.format("{\"message\" : %d}", i))
+                    .setHeader("INDEX_NAME", i % 2 == 0 ? "test-even" : "test-odd")
+                    .build());
+        }
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .ignoreExceptions()
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, "test-even"), is(6L));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .ignoreExceptions()
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, "test-odd"), is(5L));
+
+        // without correlation the interleaved messages would share bulks
+        ArgumentCaptor<BulkRequest> bulks = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(this.elasticsearchWriter, atLeastOnce()).index(bulks.capture());
+        for (BulkRequest bulk : bulks.getAllValues()) {
+            Set<String> indices = bulk.requests().stream().map(DocWriteRequest::index).collect(Collectors.toSet());
+            assertThat(indices, hasSize(1));
+        }
+        List<Integer> sizes = bulks.getAllValues().stream().map(BulkRequest::numberOfActions).sorted().collect(Collectors.toList());
+        assertThat(sizes, contains(2, 3, 3, 3));
+    }
+}
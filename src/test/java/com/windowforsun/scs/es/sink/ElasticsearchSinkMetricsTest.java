@@ -0,0 +1,77 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.store.SimpleMessageStore;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElasticsearchSinkMetricsTest {
+    private static final String RESPONSE = "{\"took\":3,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"1\",\"status\":409,"
+            + "\"error\":{\"type\":\"version_conflict_engine_exception\",\"reason\":\"[1]: version conflict\","
+            + "\"index_uuid\":\"uuid\",\"shard\":\"0\",\"index\":\"test\"}}},"
+            + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":429,"
+            + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}},"
+            + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"3\",\"status\":400,"
+            + "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\","
+            + "\"caused_by\":{\"type\":\"json_parse_exception\",\"reason\":\"Unexpected character\"}}}}"
+            + "]}";
+
+    private static BulkResponse parse() throws Exception {
+        // the high-level client's own parser
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, RESPONSE)) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+
+    private static double failures(SimpleMeterRegistry meterRegistry, String type, String status) {
+        Counter counter = meterRegistry.find("elasticsearch.sink.bulk.item.failures")
+                .tag("type", type)
+                .tag("status", status)
+                .counter();
+
+        return counter == null ? 0.0 : counter.count();
+    }
+
+    @Test
+    public void item_failures_are_tagged_with_the_elasticsearch_type() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchSinkMetrics metrics = new ElasticsearchSinkMetrics(meterRegistry, new SimpleMessageStore());
+
+        for (BulkItemResponse itemResponse : parse()) {
+            metrics.recordItemFailure(itemResponse.getFailure());
+        }
+
+        assertThat(failures(meterRegistry, "version_conflict_engine_exception", "409"), is(1.0));
+        assertThat(failures(meterRegistry, "es_rejected_execution_exception", "429"), is(1.0));
+        assertThat(failures(meterRegistry, "mapper_parsing_exception", "400"), is(1.0));
+        assertThat(failures(meterRegistry, "exception", "409"), is(0.0));
+    }
+
+    @Test
+    public void low_level_transport_failures_are_tagged_the_same_way() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchSinkMetrics metrics = new ElasticsearchSinkMetrics(meterRegistry, new SimpleMessageStore());
+
+        BulkResponse response = LowLevelBulkTransport.parse(new ByteArrayInputStream(RESPONSE.getBytes(StandardCharsets.UTF_8)));
+        for (BulkItemResponse itemResponse : response) {
+            metrics.recordItemFailure(itemResponse.getFailure());
+        }
+
+        assertThat(failures(meterRegistry, "version_conflict_engine_exception", "409"), is(1.0));
+        assertThat(failures(meterRegistry, "mapper_parsing_exception", "400"), is(1.0));
+    }
+}
@@ -0,0 +1,135 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.store.SimpleMessageStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class ElasticsearchWriterTest {
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final int BULKS = 8;
+
+    private static ElasticsearchWriter writer(RestHighLevelClient restHighLevelClient) {
+        return writer(restHighLevelClient, ElasticsearchSinkProperties.WriterEngine.HIGH_LEVEL);
+    }
+
+    private static ElasticsearchWriter writer(RestHighLevelClient restHighLevelClient, ElasticsearchSinkProperties.WriterEngine writerEngine) {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setWriterEngine(writerEngine);
+        properties.setAsync(true);
+        properties.setMaxInFlightRequests(MAX_IN_FLIGHT);
+
+        return new ElasticsearchWriter(restHighLevelClient, properties,
+                new ElasticsearchSinkMetrics(new SimpleMeterRegistry(), new SimpleMessageStore()),
+                null, new AdaptiveBatchController(properties), null, null);
+    }
+
+    private static BulkRequest bulk(int i) {
+        return new BulkRequest().add(new IndexRequest("test").source(String.format("{\"message\" : %d}", i), XContentType.JSON));
+    }
+
+    private static List<CompletableFuture<Void>> send(ElasticsearchWriter writer) {
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        // blocks once MAX_IN_FLIGHT bulks are outstanding, so a leaked permit hangs here
+        for (int i = 0; i < BULKS; i++) {
+            results.add(writer.index(bulk(i)));
+        }
+
+        return results;
+    }
+
+    @Test
+    public void in_flight_bulks_are_bounded_and_released_on_success() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(200L, 0.0, 0.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            ElasticsearchWriter writer = writer(restHighLevelClient);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                CompletableFuture.allOf(send(writer).toArray(new CompletableFuture[0])).join();
+                // all permits are back, another round goes through
+                CompletableFuture.allOf(send(writer).toArray(new CompletableFuture[0])).join();
+            });
+
+            assertThat(stub.getDocuments(), is((long) BULKS * 2));
+            assertThat(stub.getMaxActiveRequests(), allOf(greaterThan(0), lessThanOrEqualTo(MAX_IN_FLIGHT)));
+            assertThat(writer.getInFlightRequests(), is(0));
+            writer.destroy();
+        }
+    }
+
+    @Test
+    public void permits_are_released_on_failure() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(50L, 0.0, 1.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            ElasticsearchWriter writer = writer(restHighLevelClient);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (CompletableFuture<Void> result : send(writer)) {
+                    assertThrows(CompletionException.class, result::join);
+                }
+            });
+
+            assertThat(stub.getErrors(), is((long) BULKS));
+            assertThat(stub.getMaxActiveRequests(), lessThanOrEqualTo(MAX_IN_FLIGHT));
+            assertThat(writer.getInFlightRequests(), is(0));
+            writer.destroy();
+        }
+    }
+
+    @Test
+    public void permits_are_released_when_the_request_can_not_be_sent() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 0.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            ElasticsearchWriter writer = writer(restHighLevelClient, ElasticsearchSinkProperties.WriterEngine.STREAMING);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (int i = 0; i < BULKS; i++) {
+                    // no source, the bulk body can not be written
+                    CompletableFuture<Void> result = writer.index(new BulkRequest().add(new IndexRequest("test")));
+                    assertThrows(CompletionException.class, result::join);
+                }
+            });
+
+            assertThat(stub.getDocuments(), is(0L));
+            assertThat(writer.getInFlightRequests(), is(0));
+            writer.destroy();
+        }
+    }
+
+    @Test
+    public void failed_async_index_backs_off_the_batch_size() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 1.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+            properties.setAsync(true);
+            properties.setBatchSize(1000);
+            properties.getAdaptive().setEnabled(true);
+            AdaptiveBatchController adaptiveBatchController = new AdaptiveBatchController(properties);
+            ElasticsearchWriter writer = new ElasticsearchWriter(restHighLevelClient, properties,
+                    new ElasticsearchSinkMetrics(new SimpleMeterRegistry(), new SimpleMessageStore()),
+                    null, adaptiveBatchController, null, null);
+
+            CompletableFuture<Void> result = writer.index(new IndexRequest("test").source("{\"message\" : 0}", XContentType.JSON));
+
+            assertThrows(CompletionException.class, result::join);
+            assertThat(adaptiveBatchController.getBatchSize(), is(500));
+            writer.destroy();
+        }
+    }
+}
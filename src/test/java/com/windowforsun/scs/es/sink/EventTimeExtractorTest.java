@@ -0,0 +1,57 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EventTimeExtractorTest {
+    private static final long TIMESTAMP = 1646092800000L; // 2022-03-01T00:00:00Z
+
+    private static EventTimeExtractor extractor(ElasticsearchSinkProperties.DateTimeRollingSource source, String field) {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setDateTimeRollingSource(source);
+        properties.setDateTimeRollingField(field);
+
+        return new EventTimeExtractor(properties, ZoneOffset.UTC);
+    }
+
+    @Test
+    public void header_timestamp() {
+        EventTimeExtractor extractor = extractor(ElasticsearchSinkProperties.DateTimeRollingSource.HEADER, null);
+
+        assertThat(extractor.extract(MessageBuilder.withPayload("{}").setHeader("kafka_receivedTimestamp", TIMESTAMP).build()),
+                is(TIMESTAMP));
+    }
+
+    @Test
+    public void payload_field_from_json_string_and_bytes() {
+        EventTimeExtractor extractor = extractor(ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD, "/event/ts");
+        String json = "{\"skip\" : {\"ts\" : 1}, \"event\" : {\"name\" : \"a\", \"ts\" : " + TIMESTAMP + "}, \"after\" : [1, 2]}";
+
+        assertThat(extractor.extract(MessageBuilder.withPayload(json).build()), is(TIMESTAMP));
+        assertThat(extractor.extract(MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8)).build()), is(TIMESTAMP));
+    }
+
+    @Test
+    public void payload_field_as_iso_text_and_map() {
+        EventTimeExtractor extractor = extractor(ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD, "ts");
+
+        assertThat(extractor.extract(MessageBuilder.withPayload("{\"ts\" : \"2022-03-01T00:00:00Z\"}").build()), is(TIMESTAMP));
+        assertThat(extractor.extract(MessageBuilder.withPayload("{\"ts\" : \"2022-03-01T00:00:00\"}").build()), is(TIMESTAMP));
+        assertThat(extractor.extract(MessageBuilder.withPayload(Map.of("ts", TIMESTAMP)).build()), is(TIMESTAMP));
+    }
+
+    @Test
+    public void missing_field_falls_back_to_processing_time() {
+        EventTimeExtractor extractor = extractor(ElasticsearchSinkProperties.DateTimeRollingSource.PAYLOAD, "ts");
+        long before = System.currentTimeMillis();
+
+        assertThat(extractor.extract(MessageBuilder.withPayload("{\"other\" : 1}").build()), greaterThanOrEqualTo(before));
+    }
+}
@@ -0,0 +1,41 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@ExtendWith(SpringExtension.class)
+@Import({TestChannelBinderConfiguration.class, BulkRequestRecorder.class})
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-size=4",
+                "elasticsearch.sink.group-timeout=60000",
+                "elasticsearch.sink.writer-engine=high-level",
+                "elasticsearch.sink.update.script=ctx._source.count = (ctx._source.count ?: 0) + params.count"
+        }
+)
+@ActiveProfiles("test")
+public class HighLevelOperationIndexTest extends OperationIndexTest {
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    @Override
+    protected boolean isLowLevel() {
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IndexNameResolverTest {
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    private static long epochMillis(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, UTC).toInstant().toEpochMilli();
+    }
+
+    @Test
+    public void no_rolling_format_keeps_index() {
+        IndexNameResolver resolver = new IndexNameResolver(null, UTC);
+
+        assertThat(resolver.resolve("test"), is("test"));
+    }
+
+    @Test
+    public void daily_format_rolls_on_day_boundary() {
+        IndexNameResolver resolver = new IndexNameResolver("yyyy-MM-dd", UTC);
+
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 0, 0)), is("test-2022-03-01"));
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 23, 59)), is("test-2022-03-01"));
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 2, 0, 0)), is("test-2022-03-02"));
+        assertThat(resolver.resolve("other", epochMillis(2022, 3, 2, 12, 0)), is("other-2022-03-02"));
+    }
+
+    @Test
+    public void hourly_format_rolls_on_hour_boundary() {
+        IndexNameResolver resolver = new IndexNameResolver("yyyy-MM-dd-HH", UTC);
+
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 10, 59)), is("test-2022-03-01-10"));
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 11, 0)), is("test-2022-03-01-11"));
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 10, 30)), is("test-2022-03-01-10"));
+    }
+
+    @Test
+    public void resolved_names_are_reused_within_bucket() {
+        IndexNameResolver resolver = new IndexNameResolver("yyyy-MM-dd", UTC);
+
+        assertThat(resolver.resolve("test", epochMillis(2022, 3, 1, 1, 0)),
+                sameInstance(resolver.resolve("test", epochMillis(2022, 3, 1, 2, 0))));
+    }
+
+    @Test
+    public void many_distinct_indices_resolve_beyond_the_cache() {
+        IndexNameResolver resolver = new IndexNameResolver("yyyy-MM-dd", UTC);
+
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(resolver.resolve("test-" + i, epochMillis(2022, 3, 1, 1, 0)), is("test-" + i + "-2022-03-01"));
+        }
+    }
+
+    @Test
+    public void invalid_format_fails_fast() {
+        assertThrows(IllegalArgumentException.class, () -> new IndexNameResolver("yyyy-MM-dd-{", UTC));
+    }
+}
@@ -0,0 +1,71 @@
+package com.windowforsun.scs.es.sink;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.ZoneOffset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IndexRequestFactoryTest {
+    private static final long TIMESTAMP = 1646092800000L; // 2022-03-01T00:00:00Z
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static IndexRequestFactory factory(ElasticsearchSinkProperties properties) {
+        properties.setIndex("test");
+        properties.setDateTimeRollingFormat("yyyy-MM-dd");
+        properties.setDateTimeRollingZone(ZoneOffset.UTC);
+
+        return new IndexRequestFactory(properties, new IndexNameResolver("yyyy-MM-dd", ZoneOffset.UTC),
+                new EventTimeExtractor(properties, ZoneOffset.UTC), null);
+    }
+
+    private static Message<String> message(long timestamp) {
+        return MessageBuilder.withPayload("{}").setHeader(KafkaHeaders.RECEIVED_TIMESTAMP, timestamp).build();
+    }
+
+    @Test
+    public void event_time_without_correlation_groups_by_rolled_index() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setDateTimeRollingSource(ElasticsearchSinkProperties.DateTimeRollingSource.HEADER);
+        IndexRequestFactory factory = factory(properties);
+
+        assertThat(factory.correlationKey(message(TIMESTAMP)), is("test-2022-03-01"));
+        assertThat(factory.correlationKey(message(TIMESTAMP + DAY)), is("test-2022-03-02"));
+    }
+
+    @Test
+    public void processing_time_without_correlation_is_one_group() {
+        IndexRequestFactory factory = factory(new ElasticsearchSinkProperties());
+
+        assertThat(factory.correlationKey(message(TIMESTAMP)), is(""));
+        assertThat(factory.correlationKey(message(TIMESTAMP + DAY)), is(""));
+    }
+
+    @Test
+    public void fields_read_once_are_reused() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setIdField("/userId");
+        properties.setRoutingField("/tenant");
+        properties.setCorrelation(ElasticsearchSinkProperties.Correlation.INDEX_AND_ROUTING);
+        IndexRequestFactory factory = factory(properties);
+        assertThat(factory.isPayloadCorrelated(), is(true));
+
+        Message<?> message = factory.withFields(MessageBuilder.withPayload("{\"userId\":\"u1\",\"tenant\":\"t1\"}").build());
+        assertThat(factory.withFields(message), is(sameInstance(message)));
+        // a different payload behind the same headers shows the payload is not read again
+        Message<String> changed = MessageBuilder.withPayload("{\"userId\":\"u2\",\"tenant\":\"t2\"}")
+                .copyHeaders(message.getHeaders())
+                .build();
+
+        DocWriteRequest<?> request = factory.createIndexRequest(changed);
+        assertThat(request.id(), is("u1"));
+        assertThat(request.routing(), is("t1"));
+        assertThat(factory.correlationKey(changed), is(factory.correlationKey(request)));
+        assertThat(factory.correlationKey(request), is(request.index() + "/t1"));
+    }
+}
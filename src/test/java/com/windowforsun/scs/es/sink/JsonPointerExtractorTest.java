@@ -0,0 +1,46 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class JsonPointerExtractorTest {
+    private static final String JSON = "{\"skip\" : {\"userId\" : \"wrong\"}, \"userId\" : \"u-1\", "
+            + "\"tenant\" : {\"name\" : \"Acme\", \"shard\" : 3}, \"ts\" : 1646092800000, \"score\" : 1.5}";
+
+    @Test
+    public void reads_all_fields_in_one_pass() {
+        JsonPointerExtractor extractor = new JsonPointerExtractor("userId", "/tenant/name", null, "/tenant/shard", "score");
+
+        assertThat(extractor.extract(JSON), arrayContaining(new Object[]{"u-1", "Acme", null, 3L, 1.5}));
+        assertThat(extractor.extract(JSON.getBytes(StandardCharsets.UTF_8)), arrayContaining(new Object[]{"u-1", "Acme", null, 3L, 1.5}));
+    }
+
+    @Test
+    public void stops_once_all_fields_are_found() {
+        JsonPointerExtractor extractor = new JsonPointerExtractor("userId", "/tenant/name");
+
+        // the rest of the document is never read
+        assertThat(extractor.extract("{\"userId\" : \"u-1\", \"tenant\" : {\"name\" : \"Acme\"}, \"broken\" : ]"),
+                arrayContaining(new Object[]{"u-1", "Acme"}));
+    }
+
+    @Test
+    public void missing_and_non_scalar_fields_are_null() {
+        JsonPointerExtractor extractor = new JsonPointerExtractor("tenant", "/tenant/missing", "/userId/nested");
+
+        assertThat(extractor.extract(JSON), arrayContaining(new Object[3]));
+        assertThat(extractor.extract("not json"), arrayContaining(new Object[3]));
+    }
+
+    @Test
+    public void reads_map_payload() {
+        JsonPointerExtractor extractor = new JsonPointerExtractor("userId", "/tenant/name");
+
+        assertThat(extractor.extract(Map.of("userId", "u-1", "tenant", Map.of("name", "Acme"))), arrayContaining(new Object[]{"u-1", "Acme"}));
+    }
+}
@@ -0,0 +1,167 @@
+package com.windowforsun.scs.es.sink;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LowLevelBulkTransportTest {
+
+    private static BulkResponse parse(String json) throws IOException {
+        return LowLevelBulkTransport.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] gzip(byte[] bytes, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new LowLevelBulkTransport.LevelGzipOutputStream(out, level)) {
+            gzip.write(bytes);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static BulkRequest bulk(int documents) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int i = 0; i < documents; i++) {
+            bulkRequest.add(new IndexRequest("test").source(String.format("{\"message\" : %d}", i), XContentType.JSON));
+        }
+
+        return bulkRequest;
+    }
+
+    @Test
+    public void successful_items_are_skipped() throws Exception {
+        BulkResponse response = parse("{\"took\":7,\"errors\":false,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+                + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"2\",\"_version\":1,\"result\":\"created\","
+                + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1,\"status\":201}}"
+                + "]}");
+
+        assertThat(response.hasFailures(), is(false));
+        assertThat(response.getItems().length, is(0));
+        assertThat(response.getTook().millis(), is(7L));
+    }
+
+    @Test
+    public void items_are_not_read_without_errors() throws Exception {
+        // the items are cut off, only a walk over them would fail
+        BulkResponse response = parse("{\"took\":5,\"errors\":false,\"items\":[{\"index\":{\"_index\":");
+
+        assertThat(response.hasFailures(), is(false));
+        assertThat(response.getTook().millis(), is(5L));
+    }
+
+    @Test
+    public void failed_items_keep_their_position() throws Exception {
+        BulkResponse response = parse("{\"took\":3,\"errors\":true,\"items\":["
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+                + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+                + "{\"create\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":429,"
+                + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}},"
+                + "{\"index\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"3\",\"status\":400,"
+                + "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\","
+                + "\"caused_by\":{\"type\":\"json_parse_exception\",\"reason\":\"unexpected\"}}}}"
+                + "]}");
+
+        assertThat(response.hasFailures(), is(true));
+        BulkItemResponse[] items = response.getItems();
+        assertThat(items.length, is(2));
+        assertThat(items[0].getItemId(), is(1));
+        assertThat(items[0].getOpType(), is(DocWriteRequest.OpType.CREATE));
+        assertThat(items[0].getFailure().getStatus(), is(RestStatus.TOO_MANY_REQUESTS));
+        assertThat(items[1].getItemId(), is(2));
+        assertThat(items[1].getId(), is("3"));
+        assertThat(items[1].getFailureMessage(), containsString("failed to parse"));
+    }
+
+    @Test
+    public void delete_of_missing_document_is_not_a_failure() throws Exception {
+        BulkResponse response = parse("{\"took\":1,\"errors\":false,\"items\":["
+                + "{\"delete\":{\"_index\":\"test\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"not_found\","
+                + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":404}}"
+                + "]}");
+
+        assertThat(response.hasFailures(), is(false));
+    }
+
+    @Test
+    public void level_gzip_output_stream_round_trips() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) {
+            text.append("{\"index\":{\"_index\":\"test\"}}\n{\"message\" : ").append(i).append("}\n");
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        byte[] fastest = gzip(bytes, Deflater.BEST_SPEED);
+        byte[] best = gzip(bytes, Deflater.BEST_COMPRESSION);
+        byte[] stored = gzip(bytes, Deflater.NO_COMPRESSION);
+
+        for (byte[] compressed : new byte[][]{fastest, best, stored}) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                assertThat(in.readAllBytes(), is(bytes));
+            }
+        }
+        // the level is applied
+        assertThat(best.length, lessThanOrEqualTo(fastest.length));
+        assertThat(stored.length, greaterThan(bytes.length));
+    }
+
+    @Test
+    public void only_bulks_reaching_min_bytes_are_sent_gzip_compressed() throws Exception {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.getCompression().setEnabled(true);
+        properties.getCompression().setMinBytes(bulk(3).estimatedSizeInBytes());
+
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 0.0);
+             RestClient restClient = RestClient.builder(HttpHost.create(stub.getUri())).build()) {
+            LowLevelBulkTransport transport = new LowLevelBulkTransport(restClient, properties);
+
+            assertThat(transport.applies(bulk(2)), is(false));
+            assertThat(transport.applies(bulk(3)), is(true));
+            assertThat(transport.bulk(bulk(3)).hasFailures(), is(false));
+            assertThat(transport.bulk(bulk(2)).hasFailures(), is(false));
+
+            assertThat(stub.getDocuments(), is(5L));
+            assertThat(stub.getGzipBulks(), is(1L));
+            assertThat(stub.getPlainBulks(), is(1L));
+        }
+    }
+
+    @Test
+    public void streaming_engine_sends_every_bulk_uncompressed() throws Exception {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setWriterEngine(ElasticsearchSinkProperties.WriterEngine.STREAMING);
+
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 0.0);
+             RestClient restClient = RestClient.builder(HttpHost.create(stub.getUri())).build()) {
+            LowLevelBulkTransport transport = new LowLevelBulkTransport(restClient, properties);
+
+            assertThat(transport.applies(bulk(1)), is(true));
+            transport.bulk(bulk(1));
+            transport.bulk(bulk(100));
+
+            assertThat(stub.getDocuments(), is(101L));
+            assertThat(stub.getGzipBulks(), is(0L));
+            assertThat(stub.getPlainBulks(), is(2L));
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -122,4 +123,28 @@ public class NoBatchNoTimebaseIndexTest {
         assertThat(documentList, everyItem(hasValue(allOf(greaterThanOrEqualTo(0), lessThan(totalCount)))));
     }
 
+    @Test
+    public void json_byte_array_message_ok() throws Exception {
+        String index = "test-bytes";
+        int totalCount = 11;
+
+        for(int i = 0; i < totalCount; i++) {
+            this.inputDestination.send(MessageBuilder.withPayload(String.format("{\"message\" : %d}", i).getBytes(StandardCharsets.UTF_8))
+                    .setHeader("INDEX_NAME", index)
+                    .build());
+        }
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, index), is((long) totalCount));
+
+
+        List<Map<String, Object>> documentList = Util.getAllDocumentByIndex(this.restHighLevelClient, index)
+                .stream()
+                .map(SearchHit::getSourceAsMap)
+                .collect(Collectors.toList());
+
+        assertThat(documentList, everyItem(hasKey("message")));
+    }
+
 }
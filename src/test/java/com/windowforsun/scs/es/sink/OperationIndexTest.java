@@ -0,0 +1,72 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Every operation type through one writer engine. Subclasses pick the engine, bring their own container and
+ * set the batch size to 4 with a group timeout that never fires, so each round of 4 messages is exactly one bulk.
+ */
+public abstract class OperationIndexTest {
+    private static String INDEX = "test";
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @Autowired
+    private BulkRequestRecorder bulkRequestRecorder;
+
+    protected abstract boolean isLowLevel();
+
+    private static Message<String> message(String operation, String id, String payload) {
+        return MessageBuilder.withPayload(payload)
+                .setHeader(IndexRequestFactory.INDEX_OPERATION, operation)
+                .setHeader(IndexRequestFactory.INDEX_ID, id)
+                .build();
+    }
+
+    private Map<String, Object> source(String id) throws Exception {
+        return this.restHighLevelClient.get(new GetRequest(INDEX, id), RequestOptions.DEFAULT).getSourceAsMap();
+    }
+
+    @Test
+    public void operations_mixed_in_one_bulk() throws Exception {
+        this.inputDestination.send(message("index", "1", "{\"message\" : 1, \"count\" : 1}"));
+        this.inputDestination.send(message("create", "2", "{\"message\" : 2}"));
+        this.inputDestination.send(message("index", "3", "{\"message\" : 3}"));
+        this.inputDestination.send(message("upsert", "4", "{\"message\" : 4}"));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is(4L));
+
+        this.inputDestination.send(message("update", "1", "{\"tag\" : \"updated\"}"));
+        this.inputDestination.send(message("script", "1", "{\"count\" : 2}"));
+        this.inputDestination.send(message("delete", "2", "{}"));
+        this.inputDestination.send(message("upsert", "3", "{\"tag\" : \"upserted\"}"));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is(3L));
+
+        assertThat(this.source("1"), allOf(hasEntry("message", (Object) 1), hasEntry("tag", (Object) "updated"), hasEntry("count", (Object) 3)));
+        assertThat(this.source("3"), allOf(hasEntry("message", (Object) 3), hasEntry("tag", (Object) "upserted")));
+        assertThat(this.source("4"), hasEntry("message", (Object) 4));
+
+        assertThat(this.bulkRequestRecorder.getBulks(), hasSize(2));
+        assertThat(this.bulkRequestRecorder.getBulks(), everyItem(hasProperty("lowLevel", is(this.isLowLevel()))));
+    }
+}
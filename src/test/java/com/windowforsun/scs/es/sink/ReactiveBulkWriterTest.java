@@ -0,0 +1,71 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.store.SimpleMessageStore;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ReactiveBulkWriterTest {
+
+    private static ReactiveBulkWriter writer(String uris) {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.setIndex("test");
+        properties.setBatchSize(5);
+        // much shorter than a bulk takes, flushes come due while the only slot is busy
+        properties.setGroupTimeout(10L);
+        properties.getReactive().setConcurrency(1);
+        IndexRequestFactory indexRequestFactory = new IndexRequestFactory(properties,
+                new IndexNameResolver(properties.getDateTimeRollingFormat(), ZoneOffset.UTC),
+                new EventTimeExtractor(properties, ZoneOffset.UTC), null);
+
+        return new ReactiveBulkWriter(WebClient.create(), uris, indexRequestFactory, properties,
+                new ElasticsearchSinkMetrics(new SimpleMeterRegistry(), new SimpleMessageStore()), null, null,
+                new AcknowledgmentSequencer(binding -> {
+                }));
+    }
+
+    private static Flux<Message<?>> messages(int count) {
+        return Flux.range(0, count)
+                .delayElements(Duration.ofMillis(2))
+                .<Message<?>>map(i -> MessageBuilder.withPayload(String.format("{\"message\" : %d}", i)).build());
+    }
+
+    @Test
+    public void slow_bulks_hold_back_demand_instead_of_overflowing() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(200L, 0.0, 0.0)) {
+            // a host without scheme, as the high-level client accepts it
+            ReactiveBulkWriter writer = writer(stub.getUri().substring("http://".length()));
+
+            writer.consume(messages(40)).block(Duration.ofSeconds(30));
+
+            assertThat(stub.getDocuments(), is(40L));
+            assertThat(stub.getMaxActiveRequests(), is(1));
+        }
+    }
+
+    @Test
+    public void a_message_without_write_request_does_not_stop_the_stream() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 0.0)) {
+            ReactiveBulkWriter writer = writer(stub.getUri());
+            Flux<Message<?>> messages = Flux.concat(
+                    Flux.<Message<?>>just(MessageBuilder.withPayload("{\"message\" : \"bad\"}")
+                            .setHeader(IndexRequestFactory.INDEX_OPERATION, "unknown")
+                            .build()),
+                    messages(12));
+
+            writer.consume(messages).block(Duration.ofSeconds(30));
+
+            // the bulk of the bad message is written without it, later bulks follow
+            assertThat(stub.getDocuments(), is(12L));
+        }
+    }
+}
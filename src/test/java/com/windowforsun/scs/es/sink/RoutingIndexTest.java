@@ -0,0 +1,105 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@ExtendWith(SpringExtension.class)
+@Import(TestChannelBinderConfiguration.class)
+@Testcontainers
+@SpringBootTest(
+        properties = {
+                "elasticsearch.sink.index=test",
+                "elasticsearch.sink.batch-size=10",
+                "elasticsearch.sink.group-timeout=2",
+                "elasticsearch.sink.routing=headers['tenant']",
+                "elasticsearch.sink.shard-grouping.enabled=true"
+        }
+)
+@ActiveProfiles("test")
+public class RoutingIndexTest {
+    private static String INDEX = "test";
+    @Autowired
+    private InputDestination inputDestination;
+    @Autowired
+    private RestHighLevelClient restHighLevelClient;
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+
+    @DynamicPropertySource
+    static void elasticsearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.elasticsearch.rest.uris", () -> container.getHttpHostAddress());
+    }
+
+    @SuppressWarnings("unchecked")
+    private int routingNumShards() throws Exception {
+        Request request = new Request("GET", "/_cluster/state/metadata/" + INDEX);
+        try (InputStream content = this.restHighLevelClient.getLowLevelClient().performRequest(request).getEntity().getContent()) {
+            Map<String, Object> metadata = (Map<String, Object>) XContentHelper.convertToMap(XContentType.JSON.xContent(), content, false)
+                    .get("metadata");
+            Map<String, Object> index = (Map<String, Object>) ((Map<String, Object>) metadata.get("indices")).get(INDEX);
+
+            return ((Number) index.get("routing_num_shards")).intValue();
+        }
+    }
+
+    @Test
+    public void routing_per_message_and_client_side_shard() throws Exception {
+        this.restHighLevelClient.indices().create(new CreateIndexRequest(INDEX)
+                .settings(Settings.builder().put("index.number_of_shards", 3)), RequestOptions.DEFAULT);
+        int totalCount = 30;
+
+        for(int i = 0; i < totalCount; i++) {
+            this.inputDestination.send(MessageBuilder.withPayload(String.format("{\"message\" : %d}", i))
+                    .setHeader("tenant", "tenant-" + (i % 5))
+                    .build());
+        }
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> Util.getDocumentCountByIndex(this.restHighLevelClient, INDEX), is((long) totalCount));
+
+        SearchHit[] hits = this.restHighLevelClient.search(new SearchRequest(INDEX)
+                .source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery()).size(totalCount).explain(true)),
+                RequestOptions.DEFAULT).getHits().getHits();
+        int routingNumShards = this.routingNumShards();
+
+        assertThat(hits.length, is(totalCount));
+        for (SearchHit hit : hits) {
+            String tenant = "tenant-" + ((Number) hit.getSourceAsMap().get("message")).intValue() % 5;
+            assertThat(hit.field("_routing").getValue(), is(tenant));
+            assertThat(hit.getShard().getShardId().getId(), is(ShardGrouper.shardId(tenant, routingNumShards, 3)));
+        }
+    }
+}
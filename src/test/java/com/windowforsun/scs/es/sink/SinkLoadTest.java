@@ -0,0 +1,101 @@
+package com.windowforsun.scs.es.sink;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Pushes {@code load.messages} messages through the whole sink into {@link StubElasticsearch} for each mode
+ * and prints messages/s, end-to-end latency percentiles and the allocation rate of the JVM.
+ * Excluded from {@code test}, run with {@code ./gradlew loadTest -Dload.messages=1000000}; the stub is
+ * tuned with {@code load.latency-millis}, {@code load.rejection-rate} and {@code load.error-rate}.
+ * The allocation rate counts live threads only, the stub's own threads included.
+ */
+@Tag("load")
+public class SinkLoadTest {
+    private static final int MESSAGES = Integer.getInteger("load.messages", 1_000_000);
+    private static final long LATENCY_MILLIS = Long.getLong("load.latency-millis", 0L);
+    private static final double REJECTION_RATE = Double.parseDouble(System.getProperty("load.rejection-rate", "0"));
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("load.error-rate", "0"));
+
+    @ParameterizedTest(name = "async={0}, batch={1}, rolling={2}")
+    @CsvSource({
+            "false, false, false",
+            "false, false, true",
+            "false, true, false",
+            "false, true, true",
+            "true, false, false",
+            "true, false, true",
+            "true, true, false",
+            "true, true, true"
+    })
+    public void throughput(boolean async, boolean batch, boolean rolling) throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(LATENCY_MILLIS, REJECTION_RATE, ERROR_RATE);
+             ConfigurableApplicationContext context = new SpringApplicationBuilder(
+                     TestChannelBinderConfiguration.getCompleteConfiguration(ElasticsearchSinkApplication.class))
+                     .web(WebApplicationType.NONE)
+                     .profiles("test")
+                     .run("--spring.elasticsearch.rest.uris=" + stub.getUri(),
+                             "--elasticsearch.sink.index=load",
+                             "--elasticsearch.sink.async=" + async,
+                             "--elasticsearch.sink.max-in-flight-requests=8",
+                             "--elasticsearch.sink.batch-size=" + (batch ? 1000 : 1),
+                             "--elasticsearch.sink.group-timeout=100",
+                             rolling ? "--elasticsearch.sink.date-time-rolling-format=yyyy-MM-dd" : "--elasticsearch.sink.index=load")) {
+            InputDestination inputDestination = context.getBean(InputDestination.class);
+            long failedSends = 0;
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < MESSAGES; i++) {
+                try {
+                    inputDestination.send(MessageBuilder.withPayload("{\"sequence\":" + i + ",\"sent\":" + System.nanoTime() + "}").build());
+                } catch (Exception e) {
+                    failedSends++;
+                }
+            }
+
+            // done once everything arrived or nothing arrived for a while (rejected items that ran out of retries)
+            AtomicLong lastCount = new AtomicLong(-1);
+            long expected = MESSAGES - failedSends;
+            Awaitility.await().atMost(10, TimeUnit.MINUTES)
+                    .pollInterval(2, TimeUnit.SECONDS)
+                    .until(() -> stub.getDocuments() >= expected || lastCount.getAndSet(stub.getDocuments()) == stub.getDocuments());
+
+            double seconds = (stub.getLastDocumentNanos() - start) / 1e9;
+            double allocatedMegabytes = (allocatedBytes() - allocatedBefore) / (1024.0 * 1024.0);
+            System.out.printf("async=%s batch=%s rolling=%s: %d documents in %.1fs, %.0f msg/s, p50=%.2fms p99=%.2fms, "
+                            + "%.0f MB/s allocated, %d failed sends, %d rejected items, %d failed requests%n",
+                    async, batch, rolling, stub.getDocuments(), seconds, stub.getDocuments() / seconds,
+                    stub.getLatencyPercentileMillis(0.5), stub.getLatencyPercentileMillis(0.99),
+                    allocatedMegabytes / seconds, failedSends, stub.getRejections(), stub.getErrors());
+
+            if (REJECTION_RATE == 0 && ERROR_RATE == 0) {
+                assertThat(stub.getDocuments(), is((long) MESSAGES));
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                .filter(bytes -> bytes > 0)
+                .sum();
+    }
+}
@@ -0,0 +1,145 @@
+package com.windowforsun.scs.es.sink;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.awaitility.Awaitility;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.integration.store.SimpleMessageStore;
+import org.testcontainers.elasticsearch.ElasticsearchContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@Testcontainers
+public class SpillJournalTest {
+    private static String INDEX = "test-spill";
+    @Container
+    public static ElasticsearchContainer container = new ElasticsearchContainer("docker.elastic.co/elasticsearch/elasticsearch:7.10.0");
+    @TempDir
+    Path directory;
+
+    private ElasticsearchSinkProperties properties() {
+        ElasticsearchSinkProperties properties = new ElasticsearchSinkProperties();
+        properties.getSpill().setEnabled(true);
+        properties.getSpill().setDirectory(this.directory.toString());
+        properties.getSpill().setSegmentBytes(1024);
+        properties.getSpill().setReplayIntervalMillis(100L);
+
+        return properties;
+    }
+
+    private SpillJournal spillJournal(RestHighLevelClient restHighLevelClient) {
+        return new SpillJournal(restHighLevelClient, this.properties(),
+                new ElasticsearchSinkMetrics(new SimpleMeterRegistry(), new SimpleMessageStore()));
+    }
+
+    private BulkRequest bulk(int from, int count) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (int i = from; i < from + count; i++) {
+            bulkRequest.add(new IndexRequest(INDEX).source(String.format("{\"message\" : %d}", i), XContentType.JSON));
+        }
+
+        return bulkRequest;
+    }
+
+    @Test
+    public void spilled_bulks_survive_restart_while_cluster_unreachable() throws Exception {
+        try (RestHighLevelClient unreachable = new RestHighLevelClient(RestClient.builder(new HttpHost("localhost", 1)))) {
+            SpillJournal spillJournal = this.spillJournal(unreachable);
+            // more than one segment of 1024 bytes
+            for (int i = 0; i < 10; i++) {
+                spillJournal.append(this.bulk(i * 10, 10));
+            }
+            long pendingBytes = spillJournal.getPendingBytes();
+            spillJournal.destroy();
+
+            SpillJournal reopened = this.spillJournal(unreachable);
+            assertThat(reopened.getPendingBytes(), allOf(is(pendingBytes), greaterThan(0L)));
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    public void spilled_bulks_are_replayed_once_cluster_answers() throws Exception {
+        try (RestHighLevelClient restHighLevelClient = new RestHighLevelClient(
+                RestClient.builder(HttpHost.create(container.getHttpHostAddress())))) {
+            SpillJournal spillJournal = this.spillJournal(restHighLevelClient);
+            for (int i = 0; i < 5; i++) {
+                spillJournal.append(this.bulk(i * 10, 10));
+            }
+
+            Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                    .pollDelay(100, TimeUnit.MILLISECONDS)
+                    .until(spillJournal::getPendingBytes, is(0L));
+            restHighLevelClient.indices().refresh(new RefreshRequest(INDEX), RequestOptions.DEFAULT);
+
+            assertThat(Util.getDocumentCountByIndex(restHighLevelClient, INDEX), is(50L));
+            spillJournal.destroy();
+        }
+    }
+
+    @Test
+    public void failing_bulks_are_dead_lettered_and_replay_moves_on() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 1.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            SpillJournal spillJournal = this.spillJournal(restHighLevelClient);
+            for (int i = 0; i < 3; i++) {
+                spillJournal.append(this.bulk(i * 10, 10));
+            }
+            long pendingBytes = spillJournal.getPendingBytes();
+
+            Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                    .pollDelay(100, TimeUnit.MILLISECONDS)
+                    .until(spillJournal::getPendingBytes, is(0L));
+
+            // a whole-request 500 is not tried again, each bulk is sent once
+            assertThat(stub.getErrors(), is(3L));
+            assertThat(Files.size(this.directory.resolve("dead-letter.spill")), is(pendingBytes));
+            spillJournal.destroy();
+        }
+    }
+
+    @Test
+    public void unreadable_frame_is_dead_lettered_and_later_bulks_are_replayed() throws Exception {
+        byte[] payload = new byte[8];
+        Arrays.fill(payload, (byte) 0xFF);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer segment = ByteBuffer.allocate(64)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload);
+        Files.write(this.directory.resolve("segment-00000000000000000000.spill"), segment.array());
+
+        try (StubElasticsearch stub = new StubElasticsearch(0L, 0.0, 0.0);
+             RestHighLevelClient restHighLevelClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.getUri())))) {
+            SpillJournal spillJournal = this.spillJournal(restHighLevelClient);
+            spillJournal.append(this.bulk(0, 10));
+
+            Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                    .pollDelay(100, TimeUnit.MILLISECONDS)
+                    .until(spillJournal::getPendingBytes, is(0L));
+
+            assertThat(stub.getDocuments(), is(10L));
+            assertThat(Files.size(this.directory.resolve("dead-letter.spill")), is((long) Integer.BYTES * 2 + payload.length));
+            spillJournal.destroy();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.windowforsun.scs.es.sink;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-process stand-in for a cluster answering {@code _bulk} and {@code _doc} requests, with a fixed latency,
+ * a share of items rejected with 429 and a share of whole requests failing with 500.
+ * Documents holding a {@code "sent"} field with a {@link System#nanoTime()} value are timed end to end.
+ * The most requests handled at the same time and the bulks received with and without gzip are counted.
+ */
+public class StubElasticsearch implements AutoCloseable {
+    private static final String SENT_FIELD = "\"sent\":";
+    private static final String INDEX_FIELD = "\"_index\":\"";
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double rejectionRate;
+    private final double errorRate;
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong lastDocumentNanos = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+    private final AtomicLong gzipBulks = new AtomicLong();
+    private final AtomicLong plainBulks = new AtomicLong();
+    private final Timer endToEndLatency;
+
+    public StubElasticsearch(long latencyMillis, double rejectionRate, double errorRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rejectionRate = rejectionRate;
+        this.errorRate = errorRate;
+        this.endToEndLatency = Timer.builder("stub.end-to-end")
+                .publishPercentiles(0.5, 0.99)
+                .register(new SimpleMeterRegistry());
+        this.executor = Executors.newFixedThreadPool(32);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public String getUri() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    public long getDocuments() {
+        return this.documents.get();
+    }
+
+    public long getRejections() {
+        return this.rejections.get();
+    }
+
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    public int getMaxActiveRequests() {
+        return this.maxActiveRequests.get();
+    }
+
+    public long getGzipBulks() {
+        return this.gzipBulks.get();
+    }
+
+    public long getPlainBulks() {
+        return this.plainBulks.get();
+    }
+
+    public long getLastDocumentNanos() {
+        return this.lastDocumentNanos.get();
+    }
+
+    public double getLatencyPercentileMillis(double percentile) {
+        return Arrays.stream(this.endToEndLatency.takeSnapshot().percentileValues())
+                .filter(value -> value.percentile() == percentile)
+                .mapToDouble(value -> value.value(TimeUnit.MILLISECONDS))
+                .findFirst()
+                .orElse(Double.NaN);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        this.maxActiveRequests.accumulateAndGet(this.activeRequests.incrementAndGet(), Math::max);
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String body = this.body(exchange);
+            if (path.endsWith("/_bulk")) {
+                boolean gzip = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                (gzip ? this.gzipBulks : this.plainBulks).incrementAndGet();
+            }
+            if (this.latencyMillis > 0) {
+                Thread.sleep(this.latencyMillis);
+            }
+
+            if ("/".equals(path)) {
+                this.respond(exchange, 200, "{\"version\":{\"number\":\"7.12.0\"},\"tagline\":\"You Know, for Search\"}");
+            } else if (ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+                this.errors.incrementAndGet();
+                this.respond(exchange, 500,
+                        "{\"error\":{\"type\":\"stub_exception\",\"reason\":\"injected by stub\"},\"status\":500}");
+            } else if (path.endsWith("/_bulk")) {
+                this.respond(exchange, 200, this.bulk(body));
+            } else if (path.contains("/_doc")) {
+                this.document(exchange, path, body);
+            } else {
+                this.respond(exchange, 404,
+                        "{\"error\":{\"type\":\"stub_exception\",\"reason\":\"not stubbed: " + path + "\"},\"status\":404}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.activeRequests.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String bulk(String body) {
+        StringBuilder items = new StringBuilder();
+        boolean errors = false;
+        int start = 0;
+
+        while (start < body.length()) {
+            int actionEnd = body.indexOf('\n', start);
+            int sourceEnd = body.indexOf('\n', actionEnd + 1);
+            if (actionEnd < 0 || sourceEnd < 0) {
+                break;
+            }
+            String action = body.substring(start, actionEnd);
+            String opType = action.substring(action.indexOf('"') + 1, action.indexOf('"', action.indexOf('"') + 1));
+            String index = field(action, INDEX_FIELD);
+            String id = "stub-" + this.ids.incrementAndGet();
+
+            if (items.length() > 0) {
+                items.append(',');
+            }
+            if (ThreadLocalRandom.current().nextDouble() < this.rejectionRate) {
+                errors = true;
+                this.rejections.incrementAndGet();
+                items.append("{\"").append(opType).append("\":{\"_index\":\"").append(index)
+                        .append("\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                        .append("\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected by stub\"}}}");
+            } else {
+                this.accept(body.substring(actionEnd + 1, sourceEnd));
+                items.append("{\"").append(opType).append("\":").append(created(index, id, 201)).append('}');
+            }
+            start = sourceEnd + 1;
+        }
+
+        return "{\"took\":1,\"errors\":" + errors + ",\"items\":[" + items + "]}";
+    }
+
+    private void document(HttpExchange exchange, String path, String body) throws IOException {
+        String index = path.substring(1, path.indexOf('/', 1));
+        if (ThreadLocalRandom.current().nextDouble() < this.rejectionRate) {
+            this.rejections.incrementAndGet();
+            this.respond(exchange, 429,
+                    "{\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected by stub\"},\"status\":429}");
+            return;
+        }
+        this.accept(body);
+        this.respond(exchange, 201, created(index, "stub-" + this.ids.incrementAndGet(), -1));
+    }
+
+    private void accept(String source) {
+        long now = System.nanoTime();
+        this.documents.incrementAndGet();
+        this.lastDocumentNanos.set(now);
+
+        int sent = source.indexOf(SENT_FIELD);
+        if (sent >= 0) {
+            int from = sent + SENT_FIELD.length();
+            int to = from;
+            while (to < source.length() && (Character.isDigit(source.charAt(to)) || source.charAt(to) == '-')) {
+                to++;
+            }
+            this.endToEndLatency.record(now - Long.parseLong(source.substring(from, to)), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String created(String index, String id, int status) {
+        return "{\"_index\":\"" + index + "\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_version\":1,\"result\":\"created\","
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1"
+                + (status > 0 ? ",\"status\":" + status : "") + "}";
+    }
+
+    private static String field(String json, String prefix) {
+        int from = json.indexOf(prefix);
+        if (from < 0) {
+            return "";
+        }
+        from += prefix.length();
+
+        return json.substring(from, json.indexOf('"', from));
+    }
+
+    private String body(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        try (InputStream body = in) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+}
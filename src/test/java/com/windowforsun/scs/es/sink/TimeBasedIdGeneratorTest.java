@@ -0,0 +1,57 @@
+package com.windowforsun.scs.es.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TimeBasedIdGeneratorTest {
+
+    @Test
+    public void ids_of_a_thread_sort_by_creation() {
+        TimeBasedIdGenerator idGenerator = new TimeBasedIdGenerator();
+        String previous = idGenerator.next();
+
+        for (int i = 0; i < 100_000; i++) {
+            String id = idGenerator.next();
+            assertThat(id.length(), is(22));
+            assertThat(id, greaterThan(previous));
+            previous = id;
+        }
+    }
+
+    @Test
+    public void ids_are_unique_across_threads() throws Exception {
+        TimeBasedIdGenerator idGenerator = new TimeBasedIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(idGenerator.next());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(ids, hasSize(threads * perThread));
+    }
+}